@@ -0,0 +1,36 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.factory.AgentFactory;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a REST request into an {@link Agent}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentFactoryBenchmark {
+
+    private final AgentFactory factory = new AgentFactory();
+    private final AgentRequest request = AgentFixtures.request(42);
+
+    @Benchmark
+    public Agent createAgent() {
+        return factory.createAgent(request);
+    }
+}
@@ -0,0 +1,46 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.model.AgentStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic sample data shared by the benchmarks.
+ */
+final class AgentFixtures {
+
+    static final String[] REGIONS = {"EU", "NA", "SA", "APAC", "MEA"};
+    static final AgentStatus[] STATUSES = {AgentStatus.ATTIVO, AgentStatus.INATTIVO, AgentStatus.SOSPESO};
+
+    private AgentFixtures() {
+    }
+
+    static Agent agent(long id) {
+        Agent agent = new Agent(id, String.format("AG-%08d", id), "Agent " + id,
+                REGIONS[(int) (id % REGIONS.length)], STATUSES[(int) (id % STATUSES.length)],
+                LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(id));
+        agent.setVersion(id);
+        return agent;
+    }
+
+    static List<Agent> agents(int count) {
+        List<Agent> agents = new ArrayList<>(count);
+        for (long id = 1; id <= count; id++) {
+            agents.add(agent(id));
+        }
+        return agents;
+    }
+
+    static AgentRequest request(long id) {
+        AgentRequest request = new AgentRequest();
+        request.setCode(String.format("AG-%08d", id));
+        request.setName("Agent " + id);
+        request.setRegion(REGIONS[(int) (id % REGIONS.length)]);
+        request.setStatus(STATUSES[(int) (id % STATUSES.length)]);
+        return request;
+    }
+}
@@ -0,0 +1,111 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentStatus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Retained heap of one million agents, compact {@link Agent} against the
+ * previous layout with a boxed id and its own region and status strings per
+ * row. Every row is built from fresh strings, the way a JDBC driver or a JSON
+ * parser hands them over. Not a JMH benchmark, since JMH measures time:
+ * run it with a fixed heap, e.g.
+ * {@code java -Xms2g -Xmx2g -cp <benchmarks jar> com.managementagent.benchmarks.AgentFootprintBenchmark}.
+ */
+public final class AgentFootprintBenchmark {
+
+    private static final int AGENTS = 1_000_000;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private AgentFootprintBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : AGENTS;
+        // The first run warms up the code paths and the region dictionary.
+        retainedBytes(count / 10, AgentFootprintBenchmark::compactAgent);
+        long legacy = retainedBytes(count, AgentFootprintBenchmark::legacyAgent);
+        long compact = retainedBytes(count, AgentFootprintBenchmark::compactAgent);
+        System.out.printf("%-10s %14s %10s%n", "layout", "retained MB", "B/agent");
+        System.out.printf("%-10s %14.1f %10d%n", "legacy", legacy / 1048576.0, legacy / count);
+        System.out.printf("%-10s %14.1f %10d%n", "compact", compact / 1048576.0, compact / count);
+    }
+
+    private static long retainedBytes(int count, LongFunction<Object> factory) {
+        long before = usedHeapAfterGc();
+        List<Object> agents = new ArrayList<>(count);
+        for (long id = 1; id <= count; id++) {
+            agents.add(factory.apply(id));
+        }
+        long after = usedHeapAfterGc();
+        if (agents.size() != count) {
+            throw new IllegalStateException("Lost agents while measuring");
+        }
+        return after - before;
+    }
+
+    private static Agent compactAgent(long id) {
+        Agent agent = new Agent(id, String.format("AG-%08d", id), "Agent " + id, region(id),
+                AgentStatus.fromCode(status(id)), START.plusSeconds(id));
+        agent.setVersion(id);
+        return agent;
+    }
+
+    private static LegacyAgent legacyAgent(long id) {
+        return new LegacyAgent(id, String.format("AG-%08d", id), "Agent " + id, region(id), status(id),
+                START.plusSeconds(id), id);
+    }
+
+    private static String region(long id) {
+        return new String(AgentFixtures.REGIONS[(int) (id % AgentFixtures.REGIONS.length)]);
+    }
+
+    private static String status(long id) {
+        return new String(AgentFixtures.STATUSES[(int) (id % AgentFixtures.STATUSES.length)].name());
+    }
+
+    private static long usedHeapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        // Repeat until a collection frees nothing more, so only reachable objects remain.
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long current = memory.getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                break;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+    /**
+     * Field layout of {@link Agent} before status became an enum and the id a primitive.
+     */
+    private static final class LegacyAgent {
+        private final Long id;
+        private final String code;
+        private final String name;
+        private final String region;
+        private final String status;
+        private final LocalDateTime lastUpdate;
+        private final long version;
+
+        private LegacyAgent(Long id, String code, String name, String region, String status,
+                            LocalDateTime lastUpdate, long version) {
+            this.id = id;
+            this.code = code;
+            this.name = name;
+            this.region = region;
+            this.status = status;
+            this.lastUpdate = lastUpdate;
+            this.version = version;
+        }
+    }
+}
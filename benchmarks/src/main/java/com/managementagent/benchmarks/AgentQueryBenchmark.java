@@ -0,0 +1,63 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.dao.InMemoryAgentDAO;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Server-side filtering through the secondary indexes against loading the
+ * whole table and filtering it, which is what clients did before filters existed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentQueryBenchmark {
+
+    private static final int AGENTS = 100_000;
+
+    private InMemoryAgentDAO dao;
+    private AgentQuery query;
+
+    @Setup
+    public void setUp() {
+        dao = new InMemoryAgentDAO();
+        for (long id = 1; id <= AGENTS; id++) {
+            Agent agent = AgentFixtures.agent(id);
+            agent.setId(0);
+            dao.save(agent);
+        }
+        query = new AgentQuery();
+        query.setRegion("APAC");
+        query.setStatus(AgentStatus.SOSPESO);
+    }
+
+    @Benchmark
+    public List<Agent> indexedFilter() {
+        return dao.findByQuery(query);
+    }
+
+    @Benchmark
+    public List<Agent> loadAllThenFilter() {
+        return dao.findAll().stream()
+                .filter(agent -> "APAC".equals(agent.getRegion()) && agent.getStatus() == AgentStatus.SOSPESO)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,58 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.dao.InMemoryAgentDAO;
+import com.managementagent.server.factory.AgentDataGenerator;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentMatch;
+import com.managementagent.server.service.AgentSearchIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typeahead queries against the search index over one million generated
+ * agents, sampled so that the report includes p99. The queries cover each
+ * ranking tier and a query with no match, which has to walk a posting list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AgentSearchBenchmark {
+
+    private static final int AGENTS = 1_000_000;
+
+    @Param({"AG-000123456", "AG-0001234", "mar", "ross", "olomb", "zzzz"})
+    public String query;
+
+    private AgentSearchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new AgentSearchIndex(new InMemoryAgentDAO());
+        AgentDataGenerator generator = new AgentDataGenerator(42);
+        for (long i = 1; i <= AGENTS; i++) {
+            Agent agent = generator.agent(i);
+            agent.setId(i);
+            index.onAgentCreated(agent);
+        }
+    }
+
+    @Benchmark
+    public List<AgentMatch> search() {
+        return index.search(query, 10);
+    }
+}
@@ -0,0 +1,90 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.dao.InMemoryAgentDAO;
+import com.managementagent.server.factory.AgentFactory;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.observer.AgentEventPublisher;
+import com.managementagent.server.service.AgentService;
+import com.managementagent.server.service.ServiceExecutors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The full {@link AgentService} async pipeline, executor hand-off and event
+ * publication included, over an in-memory DAO so the database does not
+ * dominate the figures.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class AgentServiceBenchmark {
+
+    private static final int AGENTS = 100_000;
+
+    private AgentService service;
+    private AgentRequest updateRequest;
+    private AgentQuery regionQuery;
+
+    @Setup
+    public void setUp() {
+        InMemoryAgentDAO dao = new InMemoryAgentDAO();
+        for (long id = 1; id <= AGENTS; id++) {
+            Agent agent = AgentFixtures.agent(id);
+            agent.setId(0);
+            dao.save(agent);
+        }
+        service = new AgentService(dao, new AgentFactory(), new AgentEventPublisher(),
+                ServiceExecutors.fixed(4), 0);
+        updateRequest = AgentFixtures.request(7);
+        regionQuery = new AgentQuery();
+        regionQuery.setRegion("EU");
+        regionQuery.setStatus(AgentStatus.ATTIVO);
+        regionQuery.setLimit(100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Benchmark
+    public Optional<Agent> getById() {
+        return service.getAgentByIdAsync(randomId()).join();
+    }
+
+    @Benchmark
+    public Optional<Agent> update() {
+        return service.updateAgentAsync(randomId(), updateRequest, null).join();
+    }
+
+    @Benchmark
+    public List<Agent> findByRegionAndStatus() {
+        return service.findAgentsAsync(regionQuery).join();
+    }
+
+    private static long randomId() {
+        return ThreadLocalRandom.current().nextLong(1, AGENTS + 1);
+    }
+}
@@ -0,0 +1,120 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.dao.H2AgentDAO;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStatus;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The filtered {@code GET /agents} query on a seeded embedded H2 database,
+ * with the {@code ix_agents_region_status} index of the schema and with the
+ * index dropped, so the same statement has to walk the primary key. The
+ * fixtures spread each region and status evenly; every thousandth agent is
+ * moved to {@value #RARE_REGION} to also measure a selective filter, which is
+ * where the index matters. The in-memory counterpart is {@link AgentQueryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class AgentSqlQueryBenchmark {
+
+    private static final int SEED_CHUNK = 10_000;
+    private static final String RARE_REGION = "LATAM";
+    private static final int RARE_EVERY = 1_000;
+
+    @Param({"100000", "1000000"})
+    private int agents;
+
+    @Param({"true", "false"})
+    private boolean indexed;
+
+    /** APAC holds one agent in five, LATAM one in a thousand. */
+    @Param({"APAC", "LATAM"})
+    private String region;
+
+    /** A page as the client requests it, or 0 for the whole filtered result. */
+    @Param({"100", "0"})
+    private int limit;
+
+    private HikariDataSource dataSource;
+    private H2AgentDAO dao;
+    private AgentQuery query;
+
+    @Setup
+    public void setUp() throws Exception {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:h2:mem:bench_" + agents + "_" + indexed + "_" + region + "_" + limit
+                + ";MODE=MSSQLServer;DB_CLOSE_DELAY=-1;"
+                // H2 hands back the previous result of an identical query on an unchanged table.
+                + "OPTIMIZE_REUSE_RESULTS=0;"
+                + "INIT=RUNSCRIPT FROM 'classpath:schema-h2.sql'");
+        // The shaded jar keeps only one META-INF/services/java.sql.Driver, so name the driver explicitly.
+        config.setDriverClassName("org.h2.Driver");
+        config.setMaximumPoolSize(2);
+        dataSource = new HikariDataSource(config);
+        dao = new H2AgentDAO(dataSource, dataSource);
+        List<Agent> chunk = new ArrayList<>(SEED_CHUNK);
+        for (long id = 1; id <= agents; id++) {
+            Agent agent = AgentFixtures.agent(id);
+            agent.setId(0);
+            if (id % RARE_EVERY == 0) {
+                agent.setRegion(RARE_REGION);
+            }
+            chunk.add(agent);
+            if (chunk.size() == SEED_CHUNK) {
+                dao.saveAll(chunk);
+                chunk.clear();
+            }
+        }
+        dao.saveAll(chunk);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            if (!indexed) {
+                statement.execute("DROP INDEX ix_agents_region_status");
+            }
+            statement.execute("ANALYZE");
+        }
+        // Region and status together, as sent by the client's filter fields.
+        query = new AgentQuery();
+        query.setRegion(region);
+        query.setStatus(AgentStatus.SOSPESO);
+        if (limit > 0) {
+            query.setLimit(limit);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    public List<Agent> filteredQuery() {
+        return dao.findByQuery(query);
+    }
+}
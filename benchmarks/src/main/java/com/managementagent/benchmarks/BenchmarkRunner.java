@@ -0,0 +1,37 @@
+package com.managementagent.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs the JMH benchmarks accepting the usual JMH command line, but always
+ * writes machine-readable JSON results so runs on different commits can be
+ * compared. The file goes to {@code jmh-results/<label>.json}, where the label
+ * is the {@code benchmark.label} system property (e.g. a commit hash) or a timestamp.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        String label = System.getProperty("benchmark.label",
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        File results = new File("jmh-results", label + ".json");
+        results.getParentFile().mkdirs();
+        Options options = new OptionsBuilder()
+                .parent(commandLine)
+                .resultFormat(ResultFormatType.JSON)
+                .result(commandLine.getResult().orElse(results.getPath()))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,91 @@
+package com.managementagent.benchmarks;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.observer.AgentEventListener;
+import com.managementagent.server.observer.AgentEventPublisher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing cost seen by the writing thread when fanning an event out to N
+ * listeners, with synchronous dispatch and with the asynchronous per-listener queues.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventPublisherBenchmark {
+
+    @Param({"1", "4", "16"})
+    private int listeners;
+
+    @Param({"sync", "async"})
+    private String dispatch;
+
+    private AgentEventPublisher publisher;
+    private final Agent agent = AgentFixtures.agent(1);
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        publisher = "async".equals(dispatch)
+                ? new AgentEventPublisher(4096, AgentEventPublisher.OverflowPolicy.BLOCK)
+                : new AgentEventPublisher();
+        for (int i = 0; i < listeners; i++) {
+            publisher.register(new ConsumingListener(blackhole));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        publisher.shutdown();
+    }
+
+    @Benchmark
+    public void publishUpdated() {
+        publisher.publishAgentUpdated(agent, agent);
+    }
+
+    private static final class ConsumingListener implements AgentEventListener {
+        private final Blackhole blackhole;
+
+        private ConsumingListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onAgentCreated(Agent agent) {
+            blackhole.consume(agent);
+        }
+
+        @Override
+        public void onAgentUpdated(Agent previous, Agent agent) {
+            blackhole.consume(agent);
+        }
+
+        @Override
+        public void onAgentDeleted(Agent agent) {
+            blackhole.consume(agent);
+        }
+
+        @Override
+        public void onAgentsImported(List<Agent> agents) {
+            blackhole.consume(agents);
+        }
+    }
+}
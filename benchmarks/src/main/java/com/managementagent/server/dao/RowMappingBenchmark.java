@@ -0,0 +1,78 @@
+package com.managementagent.server.dao;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SqlServerAgentDAO#mapRow} over an in-memory {@link CachedRowSet}
+ * shaped like the DAO's select list. Lives in the DAO package to reach the
+ * package-private mapper; measures mapping only, no driver or network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMappingBenchmark {
+
+    private static final int ROWS = 1000;
+    private static final String[] REGIONS = {"EU", "NA", "SA", "APAC", "MEA"};
+
+    private CachedRowSet rows;
+
+    @Setup
+    public void setUp() throws Exception {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(7);
+        String[] names = {"id", "code", "name", "region", "status", "last_update", "version"};
+        int[] types = {Types.BIGINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+                Types.TIMESTAMP, Types.BIGINT};
+        for (int i = 0; i < names.length; i++) {
+            metaData.setColumnName(i + 1, names[i]);
+            metaData.setColumnLabel(i + 1, names[i]);
+            metaData.setColumnType(i + 1, types[i]);
+        }
+        rows = RowSetProvider.newFactory().createCachedRowSet();
+        rows.setMetaData(metaData);
+        for (long id = 1; id <= ROWS; id++) {
+            rows.moveToInsertRow();
+            rows.updateLong(1, id);
+            rows.updateString(2, String.format("AG-%08d", id));
+            rows.updateString(3, "Agent " + id);
+            rows.updateString(4, REGIONS[(int) (id % REGIONS.length)]);
+            rows.updateString(5, "ATTIVO");
+            rows.updateTimestamp(6, Timestamp.valueOf(LocalDateTime.of(2024, 1, 1, 0, 0).plusSeconds(id)));
+            rows.updateLong(7, id);
+            rows.insertRow();
+        }
+        rows.moveToCurrentRow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void mapRow(Blackhole blackhole) throws Exception {
+        rows.beforeFirst();
+        while (rows.next()) {
+            blackhole.consume(SqlServerAgentDAO.mapRow(rows));
+        }
+    }
+}
@@ -22,7 +22,7 @@ public class ClientApplication extends Application {
         stage.setScene(new Scene(view.getRoot(), 800, 600));
         stage.show();
 
-        controller.refreshAgents();
+        controller.startLiveUpdates();
     }
 
     public static void main(String[] args) {
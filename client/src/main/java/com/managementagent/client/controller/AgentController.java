@@ -1,22 +1,37 @@
 package com.managementagent.client.controller;
 
 import com.managementagent.client.model.Agent;
+import com.managementagent.client.model.AgentChangesPayload;
 import com.managementagent.client.model.AgentPayload;
 import com.managementagent.client.service.AgentApiClient;
+import com.managementagent.client.service.StaleAgentException;
+import com.managementagent.client.service.SyncTokenExpiredException;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
-import java.util.List;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller mediating between the JavaFX view and the REST client.
  */
 public class AgentController {
 
+    private static final long RECONNECT_DELAY_SECONDS = 5;
+
     private final AgentApiClient apiClient;
     private final ObservableList<Agent> agents = FXCollections.observableArrayList();
+    // Only touched on the JavaFX application thread.
+    private final Map<Long, Agent> agentsById = new HashMap<>();
+    // Ids are never reused, so a late upsert of one of these is stale.
+    private final Set<Long> deletedIds = new HashSet<>();
+    private volatile long syncToken;
 
     public AgentController(AgentApiClient apiClient) {
         this.apiClient = apiClient;
@@ -26,8 +41,40 @@ public class AgentController {
         return agents;
     }
 
+    /**
+     * Pulls only what changed since the last refresh; the first call, with a
+     * zero token, loads the whole list. If the server no longer keeps the
+     * changes since the token, the whole list is loaded again.
+     */
     public void refreshAgents() {
-        apiClient.loadAgents().thenAccept(this::mapAndPopulate);
+        long since = syncToken;
+        apiClient.loadChanges(since)
+                .thenAccept(changes -> Platform.runLater(() -> applyChanges(changes)))
+                .exceptionally(throwable -> {
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    if (cause instanceof SyncTokenExpiredException) {
+                        reloadAgents();
+                    }
+                    return null;
+                });
+    }
+
+    private void reloadAgents() {
+        apiClient.loadChanges(0).thenAccept(changes -> Platform.runLater(() -> replaceAgents(changes)));
+    }
+
+    /**
+     * Subscribes to server push events so the table follows remote changes
+     * without polling. Once the stream is open it catches up through the
+     * change feed, so nothing changed before the subscription is missed; the
+     * first connection loads the whole list this way. If the stream drops, it
+     * reconnects after a short delay.
+     */
+    public void startLiveUpdates() {
+        apiClient.subscribeToEvents((type, payload) -> Platform.runLater(() -> applyEvent(type, payload)),
+                        this::refreshAgents)
+                .whenComplete((ignored, throwable) -> CompletableFuture.runAsync(this::startLiveUpdates,
+                        CompletableFuture.delayedExecutor(RECONNECT_DELAY_SECONDS, TimeUnit.SECONDS)));
     }
 
     public CompletableFuture<Void> createAgent(String code, String name, String region, String status) {
@@ -37,7 +84,7 @@ public class AgentController {
         payload.setRegion(region);
         payload.setStatus(status);
         return apiClient.createAgent(payload)
-                .thenAccept(agent -> Platform.runLater(() -> agents.add(convert(agent))));
+                .thenAccept(agent -> Platform.runLater(() -> upsert(agent)));
     }
 
     public CompletableFuture<Void> updateAgent(Agent agent) {
@@ -46,25 +93,87 @@ public class AgentController {
         payload.setName(agent.getName());
         payload.setRegion(agent.getRegion());
         payload.setStatus(agent.getStatus());
-        return apiClient.updateAgent(agent.getId(), payload)
-                .thenAccept(updated -> Platform.runLater(() -> {
-                    int index = agents.indexOf(agent);
-                    if (index >= 0) {
-                        agents.set(index, convert(updated));
-                    }
-                }));
+        return apiClient.updateAgent(agent.getId(), agent.getVersion(), payload)
+                .thenAccept(updated -> Platform.runLater(() -> upsert(updated)))
+                .whenComplete((ignored, throwable) -> refreshIfStale(throwable));
     }
 
     public CompletableFuture<Void> deleteAgent(Agent agent) {
-        return apiClient.deleteAgent(agent.getId())
-                .thenAccept(v -> Platform.runLater(() -> agents.remove(agent)));
+        return apiClient.deleteAgent(agent.getId(), agent.getVersion())
+                .thenAccept(v -> Platform.runLater(() -> remove(agent.getId())))
+                .whenComplete((ignored, throwable) -> refreshIfStale(throwable));
+    }
+
+    /**
+     * A conflicting write means the local copy is out of date; pull the latest
+     * state so the user can retry against it.
+     */
+    private void refreshIfStale(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        if (cause instanceof StaleAgentException) {
+            refreshAgents();
+        }
     }
 
-    private void mapAndPopulate(List<AgentPayload> payloads) {
-        Platform.runLater(() -> {
-            agents.clear();
-            payloads.stream().map(this::convert).forEach(agents::add);
+    private void applyEvent(String type, AgentPayload payload) {
+        switch (type) {
+            case "created", "updated" -> upsert(payload);
+            case "deleted" -> remove(payload.getId());
+            case "resync" -> refreshAgents();
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Applies a full load, dropping the rows it no longer contains. Rows newer
+     * than the load, added since by push events, are kept.
+     */
+    private void replaceAgents(AgentChangesPayload changes) {
+        Set<Long> loaded = new HashSet<>();
+        changes.getUpserts().forEach(payload -> loaded.add(payload.getId()));
+        agents.removeIf(agent -> {
+            boolean gone = agent.getVersion() <= changes.getNextToken() && !loaded.contains(agent.getId());
+            if (gone) {
+                agentsById.remove(agent.getId());
+            }
+            return gone;
         });
+        applyChanges(changes);
+    }
+
+    private void applyChanges(AgentChangesPayload changes) {
+        changes.getUpserts().forEach(this::upsert);
+        changes.getDeletes().forEach(this::remove);
+        syncToken = Math.max(syncToken, changes.getNextToken());
+    }
+
+    /**
+     * Push events and change-feed responses can arrive in any order, so a row
+     * is only replaced by a newer version and never brought back once deleted.
+     */
+    private void upsert(AgentPayload payload) {
+        Agent existing = agentsById.get(payload.getId());
+        if ((existing != null && existing.getVersion() >= payload.getVersion())
+                || deletedIds.contains(payload.getId())) {
+            return;
+        }
+        Agent agent = convert(payload);
+        agentsById.put(agent.getId(), agent);
+        int index = existing != null ? agents.indexOf(existing) : -1;
+        if (index >= 0) {
+            agents.set(index, agent);
+        } else {
+            agents.add(agent);
+        }
+    }
+
+    private void remove(long id) {
+        deletedIds.add(id);
+        Agent existing = agentsById.remove(id);
+        if (existing != null) {
+            agents.remove(existing);
+        }
     }
 
     private Agent convert(AgentPayload payload) {
@@ -74,6 +183,7 @@ public class AgentController {
         agent.setName(payload.getName());
         agent.setRegion(payload.getRegion());
         agent.setStatus(payload.getStatus());
+        agent.setVersion(payload.getVersion());
         return agent;
     }
 }
@@ -14,6 +14,8 @@ public class Agent {
     private final StringProperty name = new SimpleStringProperty();
     private final StringProperty region = new SimpleStringProperty();
     private final StringProperty status = new SimpleStringProperty();
+    // Server version the edit is based on; sent back as If-Match.
+    private long version;
 
     public long getId() {
         return id.get();
@@ -74,4 +76,12 @@ public class Agent {
     public StringProperty statusProperty() {
         return status;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,41 @@
+package com.managementagent.client.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DTO for the server change feed: agents written and ids deleted since the
+ * token that was sent, plus the token to send next time.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AgentChangesPayload {
+    private List<AgentPayload> upserts = new ArrayList<>();
+    private List<Long> deletes = new ArrayList<>();
+    private long nextToken;
+
+    public List<AgentPayload> getUpserts() {
+        return upserts;
+    }
+
+    public void setUpserts(List<AgentPayload> upserts) {
+        this.upserts = upserts;
+    }
+
+    public List<Long> getDeletes() {
+        return deletes;
+    }
+
+    public void setDeletes(List<Long> deletes) {
+        this.deletes = deletes;
+    }
+
+    public long getNextToken() {
+        return nextToken;
+    }
+
+    public void setNextToken(long nextToken) {
+        this.nextToken = nextToken;
+    }
+}
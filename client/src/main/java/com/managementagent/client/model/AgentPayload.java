@@ -1,14 +1,18 @@
 package com.managementagent.client.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 /**
  * Plain DTO used for REST communication.
  */
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class AgentPayload {
     private long id;
     private String code;
     private String name;
     private String region;
     private String status;
+    private long version;
 
     public long getId() {
         return id;
@@ -49,4 +53,12 @@ public class AgentPayload {
     public void setStatus(String status) {
         this.status = status;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
@@ -1,96 +1,220 @@
 package com.managementagent.client.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.managementagent.client.model.AgentChangesPayload;
 import com.managementagent.client.model.AgentPayload;
 
+import java.net.CookieManager;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
 /**
  * REST client that communicates with the Management Agent server.
  */
 public class AgentApiClient {
 
+    private static final String SMILE = "application/x-jackson-smile";
+    private static final String JSON = "application/json";
+    // Smile is preferred for size and parsing cost; JSON stays acceptable for older servers.
+    private static final String ACCEPT = SMILE + ", " + JSON + ";q=0.5";
+
     private final String baseUrl;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
     private final HttpClient httpClient;
     private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "agent-events");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public AgentApiClient(String baseUrl) {
         this.baseUrl = baseUrl;
         this.httpClient = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_1_1)
                 .connectTimeout(Duration.ofSeconds(5))
+                // Keeps the server's read-your-writes cookie, so reads after an edit show it even with replicas.
+                .cookieHandler(new CookieManager())
                 .build();
     }
 
-    public CompletableFuture<List<AgentPayload>> loadAgents() {
+    /**
+     * Loads what changed since the token; fails with
+     * {@link SyncTokenExpiredException} when the server no longer has those
+     * changes, and the caller has to reload from token {@code 0}.
+     */
+    public CompletableFuture<AgentChangesPayload> loadChanges(long since) {
         HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/agents"))
+                .uri(URI.create(baseUrl + "/agents/changes?since=" + since))
+                .header("Accept", ACCEPT)
                 .GET()
                 .build();
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApplyAsync(response -> parseList(response.body()), executorService);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> checkSuccess(checkNotExpired(since, response)))
+                .thenApplyAsync(this::parseChanges, executorService);
     }
 
     public CompletableFuture<AgentPayload> createAgent(AgentPayload payload) {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + "/agents"))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(serialize(payload), StandardCharsets.UTF_8))
+                .header("Content-Type", SMILE)
+                .header("Accept", ACCEPT)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(serialize(payload)))
                 .build();
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApplyAsync(response -> parse(response.body()), executorService);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApplyAsync(response -> parse(checkSuccess(response)), executorService);
     }
 
-    public CompletableFuture<AgentPayload> updateAgent(long id, AgentPayload payload) {
+    /**
+     * Updates the agent only if it is still at {@code version}; fails with
+     * {@link StaleAgentException} when someone else changed it first.
+     */
+    public CompletableFuture<AgentPayload> updateAgent(long id, long version, AgentPayload payload) {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + "/agents/" + id))
-                .header("Content-Type", "application/json")
-                .PUT(HttpRequest.BodyPublishers.ofString(serialize(payload), StandardCharsets.UTF_8))
+                .header("Content-Type", SMILE)
+                .header("Accept", ACCEPT)
+                .header("If-Match", "\"" + version + "\"")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(serialize(payload)))
                 .build();
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                .thenApplyAsync(response -> parse(response.body()), executorService);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApplyAsync(response -> parse(checkSuccess(checkNotStale(id, response))), executorService);
     }
 
-    public CompletableFuture<Void> deleteAgent(long id) {
+    public CompletableFuture<Void> deleteAgent(long id, long version) {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(baseUrl + "/agents/" + id))
+                .header("If-Match", "\"" + version + "\"")
                 .DELETE()
                 .build();
-        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
-                .thenAcceptAsync(response -> {}, executorService);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenAcceptAsync(response -> checkSuccess(checkNotStale(id, response)), executorService);
+    }
+
+    /**
+     * Opens the server's Server-Sent Events stream and hands every event to the
+     * listener with its name and agent payload (only the id is set for
+     * {@code deleted}, the payload is {@code null} for {@code resync}).
+     * {@code onConnected} runs once the server has registered the
+     * subscription, before any event. The future completes when the server
+     * closes the stream.
+     */
+    public CompletableFuture<Void> subscribeToEvents(BiConsumer<String, AgentPayload> listener,
+                                                     Runnable onConnected) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/agents/events"))
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines())
+                .thenAcceptAsync(response -> {
+                    if (response.statusCode() / 100 != 2) {
+                        throw new ServerResponseException(response.statusCode(),
+                                String.join("\n", response.body().toList()).trim());
+                    }
+                    readEvents(response.body(), listener, onConnected);
+                }, eventExecutor);
     }
 
-    private List<AgentPayload> parseList(String json) {
+    private void readEvents(Stream<String> lines, BiConsumer<String, AgentPayload> listener, Runnable onConnected) {
+        String[] eventName = {null};
+        StringBuilder data = new StringBuilder();
+        boolean[] connected = {false};
+        lines.forEach(line -> {
+            if (!connected[0]) {
+                // The server opens every stream with a comment sent after subscribing.
+                connected[0] = true;
+                onConnected.run();
+            }
+            if (line.isEmpty()) {
+                if (eventName[0] != null) {
+                    listener.accept(eventName[0], "resync".equals(eventName[0]) ? null : parseEvent(data.toString()));
+                }
+                eventName[0] = null;
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                eventName[0] = line.substring("event:".length()).trim();
+            } else if (line.startsWith("data:")) {
+                data.append(line.substring("data:".length()).trim());
+            }
+        });
+    }
+
+    private static <T> HttpResponse<T> checkNotExpired(long since, HttpResponse<T> response) {
+        if (response.statusCode() == 410) {
+            throw new SyncTokenExpiredException(since);
+        }
+        return response;
+    }
+
+    private static <T> HttpResponse<T> checkNotStale(long id, HttpResponse<T> response) {
+        if (response.statusCode() == 412) {
+            throw new StaleAgentException(id);
+        }
+        return response;
+    }
+
+    /**
+     * Fails with {@link ServerResponseException}, carrying the server's message, for any status
+     * not already turned into a specific exception.
+     */
+    private static HttpResponse<byte[]> checkSuccess(HttpResponse<byte[]> response) {
+        if (response.statusCode() / 100 != 2) {
+            byte[] body = response.body();
+            throw new ServerResponseException(response.statusCode(),
+                    body != null ? new String(body, StandardCharsets.UTF_8).trim() : "");
+        }
+        return response;
+    }
+
+    private AgentChangesPayload parseChanges(HttpResponse<byte[]> response) {
         try {
-            return objectMapper.readValue(json, new TypeReference<>() {
-            });
+            return mapperFor(response).readValue(response.body(), AgentChangesPayload.class);
         } catch (Exception e) {
-            throw new IllegalStateException("Unable to parse agents", e);
+            throw new IllegalStateException("Unable to parse agent changes", e);
         }
     }
 
-    private AgentPayload parse(String json) {
+    private AgentPayload parse(HttpResponse<byte[]> response) {
         try {
-            return objectMapper.readValue(json, AgentPayload.class);
+            return mapperFor(response).readValue(response.body(), AgentPayload.class);
         } catch (Exception e) {
             throw new IllegalStateException("Unable to parse agent", e);
         }
     }
 
-    private String serialize(AgentPayload payload) {
+    private AgentPayload parseEvent(String json) {
+        try {
+            return objectMapper.readValue(json, AgentPayload.class);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to parse agent event", e);
+        }
+    }
+
+    /**
+     * Decodes with whatever format the server actually chose.
+     */
+    private ObjectMapper mapperFor(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Type")
+                .filter(contentType -> contentType.startsWith(SMILE))
+                .map(contentType -> smileMapper)
+                .orElse(objectMapper);
+    }
+
+    private byte[] serialize(AgentPayload payload) {
         try {
-            return objectMapper.writeValueAsString(payload);
+            return smileMapper.writeValueAsBytes(payload);
         } catch (Exception e) {
             throw new IllegalStateException("Unable to serialize agent", e);
         }
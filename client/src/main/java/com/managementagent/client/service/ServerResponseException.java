@@ -0,0 +1,18 @@
+package com.managementagent.client.service;
+
+/**
+ * Raised when the server answers with a status the client has no specific handling for.
+ */
+public class ServerResponseException extends RuntimeException {
+
+    private final int statusCode;
+
+    public ServerResponseException(int statusCode, String message) {
+        super(message.isBlank() ? "Server answered " + statusCode : "Server answered " + statusCode + ": " + message);
+        this.statusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
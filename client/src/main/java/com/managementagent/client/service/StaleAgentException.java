@@ -0,0 +1,11 @@
+package com.managementagent.client.service;
+
+/**
+ * Raised when the server rejects a write because the agent changed since it was loaded.
+ */
+public class StaleAgentException extends RuntimeException {
+
+    public StaleAgentException(long id) {
+        super("Agent " + id + " was modified by someone else");
+    }
+}
@@ -0,0 +1,11 @@
+package com.managementagent.client.service;
+
+/**
+ * Raised when the server no longer keeps the changes since the given sync token.
+ */
+public class SyncTokenExpiredException extends RuntimeException {
+
+    public SyncTokenExpiredException(long token) {
+        super("Changes since sync token " + token + " are no longer available");
+    }
+}
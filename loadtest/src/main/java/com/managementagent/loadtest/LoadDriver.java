@@ -0,0 +1,247 @@
+package com.managementagent.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.managementagent.server.factory.AgentDataGenerator;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.service.ServiceExecutors;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closed-loop HTTP load driver for the agent API. Each worker runs on its own
+ * virtual thread (platform threads before Java 21), picks operations according
+ * to the configured mix and waits for each response before sending the next,
+ * so latencies are per request, not corrected for coordinated omission.
+ *
+ * <pre>
+ * java -jar management-agent-loadtest-jar-with-dependencies.jar --url http://localhost:7070
+ *      --concurrency 200 --warmup 10 --duration 60 --agents 1000000
+ *      --mix get=60,page=5,query=10,create=10,update=10,delete=5
+ * </pre>
+ *
+ * <p>{@code --agents} should match the server's {@code seed.agents}: reads and
+ * updates target ids {@code 1..agents}, deletes only remove agents the driver
+ * created itself so the seeded data set stays intact.</p>
+ */
+public final class LoadDriver {
+
+    enum Operation {
+        GET, PAGE, QUERY, CREATE, UPDATE, DELETE
+    }
+
+    private static final String[] QUERY_REGIONS = {"Lombardia", "Lazio", "Campania", "Toscana"};
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AgentDataGenerator generator = new AgentDataGenerator(7);
+    private final String baseUrl;
+    private final int concurrency;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long agents;
+    private final Operation[] mixTable;
+    private final long runId = System.currentTimeMillis();
+
+    private LoadDriver(Map<String, String> options) {
+        this.baseUrl = options.getOrDefault("url", "http://localhost:7070");
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "100"));
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "10")));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "60")));
+        this.agents = Long.parseLong(options.getOrDefault("agents", "100000"));
+        this.mixTable = parseMix(options.getOrDefault("mix", "get=60,page=5,query=10,create=10,update=10,delete=5"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadDriver(parseOptions(args)).run();
+    }
+
+    private void run() throws Exception {
+        System.out.printf("Driving %s with %d workers: %ds warm-up, %ds measured%n", baseUrl, concurrency,
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+        long measureFrom = System.nanoTime() + warmupNanos;
+        long measureUntil = measureFrom + durationNanos;
+        ExecutorService executor = ServiceExecutors.virtual(concurrency);
+        List<Future<Map<Operation, OperationStats>>> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            int workerId = i;
+            workers.add(executor.submit(() -> runWorker(workerId, measureFrom, measureUntil)));
+        }
+        Map<Operation, OperationStats> totals = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            totals.put(operation, new OperationStats());
+        }
+        for (Future<Map<Operation, OperationStats>> worker : workers) {
+            worker.get().forEach((operation, stats) -> totals.get(operation).mergeFrom(stats));
+        }
+        executor.shutdown();
+        report(totals);
+    }
+
+    private Map<Operation, OperationStats> runWorker(int workerId, long measureFrom, long measureUntil) {
+        SplittableRandom random = new SplittableRandom(runId * 31 + workerId);
+        Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+        Deque<Long> createdIds = new ArrayDeque<>();
+        long sequence = 0;
+        long now;
+        while ((now = System.nanoTime()) < measureUntil) {
+            Operation operation = mixTable[random.nextInt(mixTable.length)];
+            if (operation == Operation.DELETE && createdIds.isEmpty()) {
+                operation = Operation.CREATE;
+            }
+            int status;
+            long start = System.nanoTime();
+            try {
+                HttpResponse<String> response = httpClient.send(request(operation, random, createdIds,
+                        workerId, sequence++), HttpResponse.BodyHandlers.ofString());
+                status = response.statusCode();
+                if (status < 400 && operation == Operation.CREATE) {
+                    JsonNode created = objectMapper.readTree(response.body());
+                    createdIds.push(created.get("id").asLong());
+                }
+            } catch (IOException e) {
+                status = -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (now >= measureFrom) {
+                if (status == 503) {
+                    stats.get(operation).recordRejected();
+                } else if (status > 0 && status < 400) {
+                    stats.get(operation).record(elapsed);
+                } else {
+                    stats.get(operation).recordError();
+                }
+            }
+        }
+        return stats;
+    }
+
+    private HttpRequest request(Operation operation, SplittableRandom random, Deque<Long> createdIds,
+                                int workerId, long sequence) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().timeout(Duration.ofSeconds(30));
+        switch (operation) {
+            case GET -> builder.uri(uri("/agents/" + randomId(random))).GET();
+            case PAGE -> builder.uri(uri("/agents?after=" + random.nextLong(agents) + "&limit=100")).GET();
+            case QUERY -> builder.uri(uri("/agents?region=" + QUERY_REGIONS[random.nextInt(QUERY_REGIONS.length)]
+                    + "&status=ATTIVO&limit=100")).GET();
+            case CREATE -> {
+                Agent agent = generator.agent(random.nextLong(1, Long.MAX_VALUE));
+                agent.setCode("LT-" + runId + "-" + workerId + "-" + sequence);
+                builder.uri(uri("/agents")).POST(body(agent));
+            }
+            case UPDATE -> {
+                // Rewrites a seeded agent with its own code so the unique index never rejects it.
+                long id = randomId(random);
+                Agent agent = generator.agent(id);
+                agent.setName(agent.getName() + " " + sequence);
+                builder.uri(uri("/agents/" + id)).PUT(body(agent));
+            }
+            case DELETE -> builder.uri(uri("/agents/" + createdIds.pop())).DELETE();
+        }
+        return builder.header("Content-Type", "application/json").build();
+    }
+
+    private HttpRequest.BodyPublisher body(Agent agent) throws IOException {
+        Map<String, String> payload = new HashMap<>();
+        payload.put("code", agent.getCode());
+        payload.put("name", agent.getName());
+        payload.put("region", agent.getRegion());
+        payload.put("status", agent.getStatus().name());
+        return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(payload));
+    }
+
+    private long randomId(SplittableRandom random) {
+        return random.nextLong(1, agents + 1);
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private void report(Map<Operation, OperationStats> totals) {
+        double seconds = durationNanos / 1e9;
+        OperationStats overall = new OperationStats();
+        System.out.printf("%-8s %10s %8s %8s %10s %9s %9s %9s %9s%n",
+                "op", "requests", "errors", "rejected", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Operation, OperationStats> entry : totals.entrySet()) {
+            OperationStats stats = entry.getValue();
+            if (stats.getCount() == 0 && stats.getErrors() == 0 && stats.getRejected() == 0) {
+                continue;
+            }
+            overall.mergeFrom(stats);
+            stats.seal();
+            printRow(entry.getKey().name().toLowerCase(), stats, seconds);
+        }
+        overall.seal();
+        printRow("total", overall, seconds);
+    }
+
+    private static void printRow(String name, OperationStats stats, double seconds) {
+        System.out.printf("%-8s %10d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n", name, stats.getCount(),
+                stats.getErrors(), stats.getRejected(), stats.getCount() / seconds, stats.percentileMillis(50), stats.percentileMillis(99),
+                stats.percentileMillis(99.9), stats.percentileMillis(100));
+    }
+
+    /**
+     * Expands {@code get=60,update=10,...} into a 100-slot lookup table so
+     * picking an operation is a single random index.
+     */
+    private static Operation[] parseMix(String mix) {
+        Map<Operation, Integer> weights = new LinkedHashMap<>();
+        int total = 0;
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            int weight = Integer.parseInt(pair[1].trim());
+            weights.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Operation mix must have a positive total weight: " + mix);
+        }
+        List<Operation> table = new ArrayList<>();
+        for (Map.Entry<Operation, Integer> entry : weights.entrySet()) {
+            int slots = Math.round(entry.getValue() * 100f / total);
+            for (int i = 0; i < slots; i++) {
+                table.add(entry.getKey());
+            }
+        }
+        return table.toArray(new Operation[0]);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value, got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
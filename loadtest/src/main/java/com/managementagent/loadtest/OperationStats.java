@@ -0,0 +1,71 @@
+package com.managementagent.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Latencies and failures recorded for one operation by one worker. Workers
+ * never share an instance, so recording is a plain array write; results are
+ * merged once the run is over.
+ */
+final class OperationStats {
+
+    private long[] latenciesNanos = new long[1024];
+    private int count;
+    private long errors;
+    private long rejected;
+
+    void record(long nanos) {
+        if (count == latenciesNanos.length) {
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count * 2);
+        }
+        latenciesNanos[count++] = nanos;
+    }
+
+    void recordError() {
+        errors++;
+    }
+
+    /**
+     * A fast {@code 503} from the server's admission control, kept apart from real failures.
+     */
+    void recordRejected() {
+        rejected++;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getErrors() {
+        return errors;
+    }
+
+    long getRejected() {
+        return rejected;
+    }
+
+    void mergeFrom(OperationStats other) {
+        if (count + other.count > latenciesNanos.length) {
+            latenciesNanos = Arrays.copyOf(latenciesNanos, count + other.count);
+        }
+        System.arraycopy(other.latenciesNanos, 0, latenciesNanos, count, other.count);
+        count += other.count;
+        errors += other.errors;
+        rejected += other.rejected;
+    }
+
+    /**
+     * Sorts the recorded latencies; call once after merging, before {@link #percentileMillis}.
+     */
+    void seal() {
+        Arrays.sort(latenciesNanos, 0, count);
+    }
+
+    double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return latenciesNanos[Math.max(0, Math.min(count - 1, index))] / 1e6;
+    }
+}
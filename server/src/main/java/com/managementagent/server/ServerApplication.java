@@ -1,13 +1,46 @@
 package com.managementagent.server;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.managementagent.server.controller.AgentController;
+import com.managementagent.server.controller.MetricsController;
+import com.managementagent.server.controller.ReadYourWrites;
+import com.managementagent.server.controller.RequestDeadlines;
 import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.dao.CachingAgentDAO;
+import com.managementagent.server.dao.DatabaseConnectionManager;
+import com.managementagent.server.dao.EmbeddedReplicator;
+import com.managementagent.server.dao.H2AgentDAO;
+import com.managementagent.server.dao.InMemoryAgentDAO;
+import com.managementagent.server.dao.InstrumentedAgentDAO;
+import com.managementagent.server.dao.ReplicaRouter;
 import com.managementagent.server.dao.SqlServerAgentDAO;
+import com.managementagent.server.dao.TombstonePurger;
+import com.managementagent.server.factory.AgentDataGenerator;
 import com.managementagent.server.factory.AgentFactory;
+import com.managementagent.server.metrics.MetricsRegistry;
+import com.managementagent.server.metrics.RequestMetrics;
+import com.managementagent.server.observer.AgentEventListener;
 import com.managementagent.server.observer.AgentEventPublisher;
+import com.managementagent.server.observer.LoggingAgentListener;
+import com.managementagent.server.observer.PushAgentListener;
+import com.managementagent.server.service.AgentImporter;
+import com.managementagent.server.service.AgentListSnapshot;
+import com.managementagent.server.service.AgentSearchIndex;
+import com.managementagent.server.service.AdaptiveConcurrencyLimiter;
 import com.managementagent.server.service.AgentService;
+import com.managementagent.server.service.AgentStatsCounters;
+import com.managementagent.server.service.InsertBatcher;
+import com.managementagent.server.service.ServiceExecutors;
 import io.javalin.Javalin;
+import io.javalin.json.JavalinJackson;
+import io.javalin.util.ConcurrencyUtil;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Entry point for the Management Agent server. It wires together the
@@ -22,25 +55,295 @@ public class ServerApplication {
     }
 
     private static class ServerBootstrap {
-        private final ObjectMapper objectMapper = new ObjectMapper();
+        private static final long SEED = 42;
+
+        private final ObjectMapper objectMapper = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        private final MetricsRegistry metricsRegistry = new MetricsRegistry();
         private final AgentFactory agentFactory = new AgentFactory();
-        private final AgentEventPublisher eventPublisher = new AgentEventPublisher();
-        private final com.managementagent.server.observer.LoggingAgentListener loggingListener =
-                new com.managementagent.server.observer.LoggingAgentListener();
-        private final AgentDAO agentDAO = new SqlServerAgentDAO();
-        private final AgentService agentService = new AgentService(agentDAO, agentFactory, eventPublisher);
-        private final AgentController agentController = new AgentController(agentService, objectMapper);
+        private final AgentEventPublisher eventPublisher = createEventPublisher();
+        private final LoggingAgentListener loggingListener = new LoggingAgentListener();
+        private final PushAgentListener pushListener = new PushAgentListener(objectMapper,
+                ServerSettings.getPushBufferSize(),
+                PushAgentListener.OverflowPolicy.valueOf(ServerSettings.getPushOverflowPolicy().toUpperCase(Locale.ROOT)),
+                ServerSettings.getPushDispatchThreads(), ServerSettings.getPushSendTimeoutMillis());
+        private final AgentDAO agentDAO = new InstrumentedAgentDAO(createAgentDAO(metricsRegistry), metricsRegistry);
+        private final ReplicaRouter replicaRouter = createReplicaRouter();
+        private final EmbeddedReplicator replicator = createReplicator();
+        private final TombstonePurger tombstonePurger = createTombstonePurger(agentDAO);
+        private final InsertBatcher insertBatcher = ServerSettings.isInsertBatchEnabled()
+                ? new InsertBatcher(agentDAO, ServerSettings.getInsertBatchMaxSize(),
+                        ServerSettings.getInsertBatchMaxDelayMillis())
+                : null;
+        private final AdaptiveConcurrencyLimiter limiter = ServerSettings.isAdmissionControlEnabled()
+                ? new AdaptiveConcurrencyLimiter(ServerSettings.getAdmissionInitialLimit(),
+                        ServerSettings.getAdmissionMinLimit(), ServerSettings.getAdmissionMaxLimit(),
+                        ServerSettings.getAdmissionTargetLatencyMillis())
+                : null;
+        private final AgentService agentService = createAgentService(agentDAO, agentFactory, eventPublisher,
+                insertBatcher, limiter);
+        private final AgentListSnapshot listSnapshot = new AgentListSnapshot(agentService, objectMapper,
+                ServerSettings.isSnapshotGzipEnabled());
+        private final AgentStatsCounters statsCounters = new AgentStatsCounters(agentDAO,
+                ServerSettings.getStatsReconcileSeconds() * 1000);
+        private final AgentSearchIndex searchIndex = new AgentSearchIndex(agentDAO);
+        private final AgentImporter importer = new AgentImporter(agentDAO, agentFactory, eventPublisher,
+                ServerSettings.getImportBatchSize());
+        private final AgentController agentController = new AgentController(agentService, pushListener, listSnapshot,
+                statsCounters, searchIndex, importer,
+                new RequestDeadlines(ServerSettings.getReadDeadlineMillis(), ServerSettings.getWriteDeadlineMillis(),
+                        ServerSettings.getMaxDeadlineMillis()),
+                new ReadYourWrites(replicaRouter, ServerSettings.getReadYourWritesMillis()),
+                objectMapper);
+        private final MetricsController metricsController = new MetricsController(metricsRegistry);
 
         public void start() {
             eventPublisher.register(loggingListener);
+            eventPublisher.register(pushListener);
+            eventPublisher.register(listSnapshot);
+            eventPublisher.register(statsCounters);
+            eventPublisher.register(searchIndex);
+            registerMetrics();
+            seedIfEmpty();
+            // The generator writes straight to the DAO, so counters and index are only loaded after it.
+            statsCounters.start();
+            searchIndex.start();
+            RequestMetrics requestMetrics = new RequestMetrics(metricsRegistry);
             int port = ServerSettings.getPort();
-            Javalin app = Javalin.create(config -> config.plugins.enableCors(cors -> cors.add(it -> it.anyHost())));
+            // Javalin runs Jetty on virtual threads whenever the JVM supports them; follow the configured model.
+            ConcurrencyUtil.INSTANCE.setUseLoom(ServerSettings.isVirtualThreadMode());
+            Javalin app = Javalin.create(config -> {
+                config.jsonMapper(new JavalinJackson(objectMapper));
+                config.plugins.enableCors(cors -> cors.add(it -> it.anyHost()));
+                config.requestLogger.http(requestMetrics::record);
+            });
 
             agentController.registerRoutes(app);
+            metricsController.registerRoutes(app);
 
-            app.events(event -> event.serverStopped(agentService::shutdown));
+            app.events(event -> event.serverStopped(() -> {
+                agentService.shutdown();
+                eventPublisher.shutdown();
+                pushListener.shutdown();
+                statsCounters.shutdown();
+                searchIndex.shutdown();
+                if (replicator != null) {
+                    replicator.shutdown();
+                }
+                if (tombstonePurger != null) {
+                    tombstonePurger.shutdown();
+                }
+                if (replicaRouter != null) {
+                    replicaRouter.shutdown();
+                }
+            }));
 
             app.start(port);
         }
+
+        /**
+         * Fills an empty store with generated agents so load tests start from a realistic volume.
+         */
+        private void seedIfEmpty() {
+            int count = ServerSettings.getSeedAgents();
+            if (count > 0 && agentDAO.currentVersion() == 0) {
+                new AgentDataGenerator(SEED).seed(agentDAO, count);
+            }
+        }
+
+        private void registerMetrics() {
+            metricsRegistry.gauge("agent_service_queued_tasks", "Service tasks waiting for an executor thread.",
+                    agentService::getQueuedTaskCount);
+            metricsRegistry.gauge("agent_service_active_tasks", "Service tasks currently running.",
+                    agentService::getActiveTaskCount);
+            metricsRegistry.gauge("agent_service_permit_waiters", "Service tasks waiting for a query permit.",
+                    agentService::getPermitWaitCount);
+            metricsRegistry.gauge("agent_bulk_active", "Streams, exports and imports currently running.",
+                    agentService::getActiveBulkTransferCount);
+            metricsRegistry.counter("agent_bulk_rejected_total",
+                    "Streams, exports and imports refused because every bulk slot was taken.",
+                    agentService::getRejectedBulkTransferCount);
+            metricsRegistry.counter("agent_service_coalesced_reads_total",
+                    "Reads served by joining an identical read already in flight.",
+                    agentService::getCoalescedReadCount);
+            if (limiter != null) {
+                metricsRegistry.gauge("admission_limit", "Current adaptive limit on in-flight service calls.",
+                        limiter::getLimit);
+                metricsRegistry.gauge("admission_in_flight", "Service calls admitted and not yet completed.",
+                        limiter::getInFlight);
+                metricsRegistry.counter("admission_rejections_total", "Service calls rejected with 503.",
+                        limiter::getRejectedCount);
+            }
+            if (insertBatcher != null) {
+                metricsRegistry.counter("agent_insert_batches_total", "Group-committed insert batches.",
+                        insertBatcher::getBatchCount);
+                metricsRegistry.counter("agent_insert_batched_rows_total", "Agents inserted through a batch.",
+                        insertBatcher::getBatchedInsertCount);
+                metricsRegistry.counter("agent_insert_batch_fallbacks_total",
+                        "Failed batches retried one agent at a time.", insertBatcher::getFallbackCount);
+            }
+            for (AgentEventListener listener : List.of(loggingListener, pushListener, listSnapshot, statsCounters,
+                    searchIndex)) {
+                String name = listener.getClass().getSimpleName();
+                metricsRegistry.register("agent_event_dispatch_seconds", "Time a listener spends handling one event.",
+                        eventPublisher.getDispatchTime(listener), "listener", name);
+                if (eventPublisher.getListenerStats(listener) != null) {
+                    registerListenerQueueMetrics(listener, name);
+                }
+            }
+            metricsRegistry.counter("agent_imported_total", "Agents created by bulk imports.",
+                    importer::getImportedAgentCount);
+            metricsRegistry.counter("agent_import_rejected_total", "Bulk import records rejected.",
+                    importer::getRejectedRecordCount);
+            metricsRegistry.counter("agent_stats_corrections_total",
+                    "Reconciliations that found the agent counters off the database.",
+                    statsCounters::getCorrectionCount);
+            if (tombstonePurger != null) {
+                metricsRegistry.counter("agent_tombstones_purged_total",
+                        "Tombstones of deleted agents dropped after the change feed's retention.",
+                        tombstonePurger::getPurgedCount);
+            }
+            metricsRegistry.gauge("agent_search_indexed_agents", "Agents in the in-memory search index.",
+                    searchIndex::size);
+            metricsRegistry.gauge("agent_push_subscribers", "Connected Server-Sent Events clients.",
+                    pushListener::getSubscriberCount);
+            metricsRegistry.counter("agent_push_slow_consumer_disconnects_total",
+                    "Push clients disconnected for falling behind.", pushListener::getDisconnectedSlowConsumerCount);
+            if (!"memory".equals(ServerSettings.getStorageMode())) {
+                registerPoolMetrics(DatabaseConnectionManager.getInstance());
+            }
+            if (replicaRouter != null) {
+                registerReplicaMetrics(replicaRouter);
+            }
+        }
+
+        private void registerListenerQueueMetrics(AgentEventListener listener, String name) {
+            metricsRegistry.gauge("agent_event_queued", "Events waiting in a listener's asynchronous queue.",
+                    () -> eventPublisher.getListenerStats(listener).getQueued(), "listener", name);
+            metricsRegistry.gauge("agent_event_lag_seconds",
+                    "Time from publication to delivery of the listener's latest event.",
+                    () -> eventPublisher.getListenerStats(listener).getLastLagNanos() / 1e9, "listener", name);
+            metricsRegistry.counter("agent_event_dropped_total", "Events dropped by a full listener queue.",
+                    () -> eventPublisher.getListenerStats(listener).getDropped(), "listener", name);
+            metricsRegistry.counter("agent_event_coalesced_total",
+                    "Events replaced by a later one for the same agent in a full listener queue.",
+                    () -> eventPublisher.getListenerStats(listener).getCoalesced(), "listener", name);
+        }
+
+        private void registerReplicaMetrics(ReplicaRouter router) {
+            metricsRegistry.gauge("db_replicas_healthy", "Read replicas currently receiving reads.",
+                    router::getHealthyReplicaCount);
+            metricsRegistry.counter("db_routed_reads_total", "Read connections borrowed, by database.",
+                    router::getPrimaryReadCount, "target", "primary");
+            metricsRegistry.counter("db_routed_reads_total", "Read connections borrowed, by database.",
+                    router::getReplicaReadCount, "target", "replica");
+            metricsRegistry.counter("db_replica_failovers_total",
+                    "Reads sent to the primary because their replica was unavailable.", router::getFailoverCount);
+        }
+
+        private void registerPoolMetrics(DatabaseConnectionManager connectionManager) {
+            metricsRegistry.gauge("db_pool_connections", "Pooled database connections by state.",
+                    () -> connectionManager.getPoolStats().getActiveConnections(), "state", "active");
+            metricsRegistry.gauge("db_pool_connections", "Pooled database connections by state.",
+                    () -> connectionManager.getPoolStats().getIdleConnections(), "state", "idle");
+            metricsRegistry.gauge("db_pool_pending_threads", "Threads waiting for a database connection.",
+                    () -> connectionManager.getPoolStats().getThreadsAwaitingConnection());
+            metricsRegistry.register("db_pool_acquire_seconds", "Time taken to borrow a connection from the pool.",
+                    connectionManager.getAcquireTime());
+            metricsRegistry.counter("db_pool_acquire_timeouts_total", "Connection requests that timed out.",
+                    connectionManager::getAcquireTimeoutCount);
+        }
+
+        private static void registerCacheMetrics(MetricsRegistry metricsRegistry, CachingAgentDAO cache) {
+            metricsRegistry.counter("agent_cache_hits_total", "Agent lookups served from the cache.",
+                    cache::getHitCount);
+            metricsRegistry.counter("agent_cache_misses_total", "Agent lookups that went to the database.",
+                    cache::getMissCount);
+            metricsRegistry.counter("agent_cache_evictions_total", "Entries evicted to respect the size bound.",
+                    cache::getEvictionCount);
+            metricsRegistry.gauge("agent_cache_entries", "Agents currently cached.", cache::size);
+        }
+
+        private static AgentService createAgentService(AgentDAO agentDAO, AgentFactory agentFactory,
+                                                       AgentEventPublisher eventPublisher,
+                                                       InsertBatcher insertBatcher,
+                                                       AdaptiveConcurrencyLimiter limiter) {
+            int bulkTransfers = ServerSettings.getBulkMaxConcurrent();
+            long bulkTimeout = ServerSettings.getBulkTimeoutMillis();
+            if (ServerSettings.isVirtualThreadMode()) {
+                // Bulk transfers hold connections of their own, outside the query permits.
+                return new AgentService(agentDAO, agentFactory, eventPublisher,
+                        ServiceExecutors.virtual(ServerSettings.getExecutorThreads()),
+                        Math.max(1, ServerSettings.getDatabasePoolSize() - bulkTransfers), insertBatcher, limiter,
+                        bulkTransfers, bulkTimeout);
+            }
+            return new AgentService(agentDAO, agentFactory, eventPublisher,
+                    ServiceExecutors.fixed(ServerSettings.getExecutorThreads()), 0, insertBatcher, limiter,
+                    bulkTransfers, bulkTimeout);
+        }
+
+        /**
+         * Replicas only serve the JDBC storage modes; {@code memory-front} answers reads from memory.
+         */
+        private static ReplicaRouter createReplicaRouter() {
+            String mode = ServerSettings.getStorageMode();
+            if (!"sqlserver".equals(mode) && !"embedded".equals(mode)) {
+                return null;
+            }
+            return DatabaseConnectionManager.getInstance().getReplicaRouter();
+        }
+
+        private static EmbeddedReplicator createReplicator() {
+            if (!ServerSettings.isEmbeddedDatabase() || ServerSettings.getEmbeddedReplicas() == 0) {
+                return null;
+            }
+            DatabaseConnectionManager connectionManager = DatabaseConnectionManager.getInstance();
+            return new EmbeddedReplicator(connectionManager.getDataSource(), connectionManager.getReplicaDataSources(),
+                    ServerSettings.getEmbeddedReplicationDelayMillis());
+        }
+
+        private static TombstonePurger createTombstonePurger(AgentDAO agentDAO) {
+            long retentionHours = ServerSettings.getTombstoneRetentionHours();
+            if (retentionHours == 0) {
+                return null;
+            }
+            return new TombstonePurger(agentDAO, Duration.ofHours(retentionHours),
+                    TimeUnit.MINUTES.toMillis(ServerSettings.getTombstonePurgeMinutes()));
+        }
+
+        private static AgentEventPublisher createEventPublisher() {
+            if (!ServerSettings.isAsyncEventDispatch()) {
+                return new AgentEventPublisher();
+            }
+            return new AgentEventPublisher(ServerSettings.getEventQueueCapacity(),
+                    AgentEventPublisher.OverflowPolicy.valueOf(
+                            ServerSettings.getEventOverflowPolicy().toUpperCase(Locale.ROOT)));
+        }
+
+        private static AgentDAO createAgentDAO(MetricsRegistry metricsRegistry) {
+            String mode = ServerSettings.getStorageMode();
+            switch (mode) {
+                case "memory":
+                    // Everything already lives in memory, a lookup cache would only duplicate it.
+                    return new InMemoryAgentDAO();
+                case "memory-front":
+                    return new InMemoryAgentDAO(new SqlServerAgentDAO());
+                case "sqlserver":
+                case "embedded":
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown storage.mode: " + mode);
+            }
+            AgentDAO dao = ServerSettings.isEmbeddedDatabase() ? new H2AgentDAO() : new SqlServerAgentDAO();
+            if (ServerSettings.isCacheEnabled()) {
+                CachingAgentDAO cache = new CachingAgentDAO(dao, ServerSettings.getCacheMaxSize(),
+                        Duration.ofSeconds(ServerSettings.getCacheTtlSeconds()),
+                        Duration.ofMillis(ServerSettings.getReadYourWritesMillis()));
+                registerCacheMetrics(metricsRegistry, cache);
+                dao = cache;
+            }
+            return dao;
+        }
     }
 }
@@ -2,6 +2,8 @@ package com.managementagent.server;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -10,6 +12,9 @@ import java.util.Properties;
 public final class ServerSettings {
 
     private static final Properties PROPERTIES = new Properties();
+    private static final String EMBEDDED_URL_TEMPLATE = "jdbc:h2:mem:%s;MODE=MSSQLServer;DB_CLOSE_DELAY=-1;"
+            + "INIT=RUNSCRIPT FROM 'classpath:schema-h2.sql'";
+    private static final String DEFAULT_EMBEDDED_URL = String.format(EMBEDDED_URL_TEMPLATE, "agentdb");
 
     static {
         try (InputStream inputStream = ServerSettings.class
@@ -21,6 +26,13 @@ public final class ServerSettings {
         } catch (IOException e) {
             throw new IllegalStateException("Unable to load application.properties", e);
         }
+        // -Dkey=value on the command line overrides the file, e.g. -Dstorage.mode=embedded for load tests.
+        for (String name : PROPERTIES.stringPropertyNames().toArray(new String[0])) {
+            String override = System.getProperty(name);
+            if (override != null) {
+                PROPERTIES.setProperty(name, override);
+            }
+        }
     }
 
     private ServerSettings() {
@@ -41,4 +53,239 @@ public final class ServerSettings {
     public static String getDatabasePassword() {
         return PROPERTIES.getProperty("db.password");
     }
+
+    public static int getDatabasePoolSize() {
+        return Integer.parseInt(PROPERTIES.getProperty("db.pool.maxSize", "10"));
+    }
+
+    /**
+     * Execution model for service tasks and HTTP handlers: {@code fixed} (a
+     * pool of {@link #getExecutorThreads()} platform threads) or {@code virtual}
+     * (one virtual thread per task on Java 21+, bounded by the connection pool).
+     */
+    public static boolean isVirtualThreadMode() {
+        return "virtual".equalsIgnoreCase(PROPERTIES.getProperty("executor.mode", "fixed"));
+    }
+
+    public static int getExecutorThreads() {
+        return Integer.parseInt(PROPERTIES.getProperty("executor.threads", "4"));
+    }
+
+    /**
+     * Streams, exports and imports running at once, each holding a thread and
+     * a pooled connection of its own; more get 503.
+     */
+    public static int getBulkMaxConcurrent() {
+        return Integer.parseInt(PROPERTIES.getProperty("bulk.maxConcurrent", "2"));
+    }
+
+    public static long getBulkTimeoutMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("bulk.timeoutSeconds", "600")) * 1000;
+    }
+
+    /**
+     * Storage engine: {@code sqlserver} (default), {@code memory} for a
+     * database-free in-memory store, {@code memory-front} for an in-memory
+     * write-through front over SQL Server, or {@code embedded} for the JDBC
+     * path against an in-process H2 database.
+     */
+    public static String getStorageMode() {
+        return PROPERTIES.getProperty("storage.mode", "sqlserver");
+    }
+
+    public static boolean isEmbeddedDatabase() {
+        return "embedded".equals(getStorageMode());
+    }
+
+    public static String getEmbeddedDatabaseUrl() {
+        return PROPERTIES.getProperty("db.embedded.url", DEFAULT_EMBEDDED_URL);
+    }
+
+    /**
+     * JDBC URLs of the read replicas, sharing the primary's credentials. In
+     * embedded mode these are {@link #getEmbeddedReplicas()} in-process H2
+     * databases fed by a simulated replication instead of {@code db.replica.urls}.
+     */
+    public static List<String> getReplicaUrls() {
+        List<String> urls = new ArrayList<>();
+        if (isEmbeddedDatabase()) {
+            for (int i = 0; i < getEmbeddedReplicas(); i++) {
+                urls.add(String.format(EMBEDDED_URL_TEMPLATE, "agentdb_replica" + i));
+            }
+            return urls;
+        }
+        for (String url : PROPERTIES.getProperty("db.replica.urls", "").split(",")) {
+            if (!url.isBlank()) {
+                urls.add(url.trim());
+            }
+        }
+        return urls;
+    }
+
+    public static long getReplicaHealthCheckMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("db.replica.healthCheckMs", "5000"));
+    }
+
+    /**
+     * How long after a write the same client keeps reading from the primary,
+     * so it sees its own changes while the replicas catch up.
+     */
+    public static long getReadYourWritesMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("db.replica.pinMs", "2000"));
+    }
+
+    public static int getEmbeddedReplicas() {
+        return Integer.parseInt(PROPERTIES.getProperty("db.embedded.replicas", "0"));
+    }
+
+    /**
+     * Interval at which embedded replicas copy the primary's changes, i.e. their replication lag.
+     */
+    public static long getEmbeddedReplicationDelayMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("db.embedded.replicationDelayMs", "500"));
+    }
+
+    /**
+     * Number of generated agents loaded at startup when the store is empty; {@code 0} disables seeding.
+     */
+    public static int getSeedAgents() {
+        return Integer.parseInt(PROPERTIES.getProperty("seed.agents", "0"));
+    }
+
+    /**
+     * Time budget of read requests, from the moment the handler runs until the
+     * response is ready; expired requests get 504 and their query is cancelled.
+     */
+    public static long getReadDeadlineMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("deadline.readMs", "2000"));
+    }
+
+    public static long getWriteDeadlineMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("deadline.writeMs", "5000"));
+    }
+
+    /**
+     * Upper bound on the deadline a client may ask for with {@code X-Request-Timeout}.
+     */
+    public static long getMaxDeadlineMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("deadline.maxMs", "30000"));
+    }
+
+    /**
+     * Adaptive admission control: service calls beyond the current limit are
+     * rejected with 503 instead of queueing.
+     */
+    public static boolean isAdmissionControlEnabled() {
+        return Boolean.parseBoolean(PROPERTIES.getProperty("admission.enabled", "true"));
+    }
+
+    public static int getAdmissionInitialLimit() {
+        return Integer.parseInt(PROPERTIES.getProperty("admission.initialLimit", "20"));
+    }
+
+    public static int getAdmissionMinLimit() {
+        return Integer.parseInt(PROPERTIES.getProperty("admission.minLimit", "4"));
+    }
+
+    public static int getAdmissionMaxLimit() {
+        return Integer.parseInt(PROPERTIES.getProperty("admission.maxLimit", "200"));
+    }
+
+    /**
+     * Service call latency, queueing included, above which the limit shrinks.
+     */
+    public static long getAdmissionTargetLatencyMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("admission.targetLatencyMs", "100"));
+    }
+
+    /**
+     * Group commit for creates: concurrent inserts arriving within
+     * {@link #getInsertBatchMaxDelayMillis()} are written in one transaction.
+     */
+    public static boolean isInsertBatchEnabled() {
+        return Boolean.parseBoolean(PROPERTIES.getProperty("insert.batch.enabled", "false"));
+    }
+
+    public static int getInsertBatchMaxSize() {
+        return Integer.parseInt(PROPERTIES.getProperty("insert.batch.maxSize", "100"));
+    }
+
+    public static long getInsertBatchMaxDelayMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("insert.batch.maxDelayMs", "2"));
+    }
+
+    /**
+     * Records written per transaction by {@code POST /agents/import}.
+     */
+    public static int getImportBatchSize() {
+        return Integer.parseInt(PROPERTIES.getProperty("import.batchSize", "1000"));
+    }
+
+    public static boolean isCacheEnabled() {
+        return Boolean.parseBoolean(PROPERTIES.getProperty("cache.enabled", "true"));
+    }
+
+    public static int getCacheMaxSize() {
+        return Integer.parseInt(PROPERTIES.getProperty("cache.maxSize", "10000"));
+    }
+
+    public static long getCacheTtlSeconds() {
+        return Long.parseLong(PROPERTIES.getProperty("cache.ttlSeconds", "30"));
+    }
+
+    /**
+     * Whether the serialized agent list snapshot also keeps a gzip copy for
+     * clients sending {@code Accept-Encoding: gzip}.
+     */
+    public static boolean isSnapshotGzipEnabled() {
+        return Boolean.parseBoolean(PROPERTIES.getProperty("snapshot.gzip", "true"));
+    }
+
+    /**
+     * Interval between checks of the in-memory agent counters against the
+     * database; {@code 0} only loads them at startup.
+     */
+    public static long getStatsReconcileSeconds() {
+        return Long.parseLong(PROPERTIES.getProperty("stats.reconcileSeconds", "60"));
+    }
+
+    /**
+     * How long tombstones of deleted agents are kept for the change feed;
+     * {@code 0} keeps them forever.
+     */
+    public static long getTombstoneRetentionHours() {
+        return Long.parseLong(PROPERTIES.getProperty("changes.tombstoneRetentionHours", "168"));
+    }
+
+    public static long getTombstonePurgeMinutes() {
+        return Long.parseLong(PROPERTIES.getProperty("changes.tombstonePurgeMinutes", "60"));
+    }
+
+    public static int getPushBufferSize() {
+        return Integer.parseInt(PROPERTIES.getProperty("push.bufferSize", "256"));
+    }
+
+    public static String getPushOverflowPolicy() {
+        return PROPERTIES.getProperty("push.overflowPolicy", "disconnect");
+    }
+
+    public static int getPushDispatchThreads() {
+        return Integer.parseInt(PROPERTIES.getProperty("push.dispatchThreads", "2"));
+    }
+
+    public static long getPushSendTimeoutMillis() {
+        return Long.parseLong(PROPERTIES.getProperty("push.sendTimeoutMillis", "5000"));
+    }
+
+    public static boolean isAsyncEventDispatch() {
+        return "async".equalsIgnoreCase(PROPERTIES.getProperty("events.dispatch", "sync"));
+    }
+
+    public static int getEventQueueCapacity() {
+        return Integer.parseInt(PROPERTIES.getProperty("events.queueCapacity", "1024"));
+    }
+
+    public static String getEventOverflowPolicy() {
+        return PROPERTIES.getProperty("events.overflowPolicy", "block");
+    }
 }
@@ -1,65 +1,382 @@
 package com.managementagent.server.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.managementagent.server.dao.DeadlineExceededException;
+import com.managementagent.server.dao.QueryDeadline;
+import com.managementagent.server.dao.ReadRouting;
+import com.managementagent.server.dao.StaleAgentException;
+import com.managementagent.server.dao.SyncTokenExpiredException;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentQuery;
 import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.model.AgentSortField;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.observer.PushAgentListener;
+import com.managementagent.server.service.AgentImporter;
+import com.managementagent.server.service.AgentListSnapshot;
+import com.managementagent.server.service.AgentSearchIndex;
 import com.managementagent.server.service.AgentService;
+import com.managementagent.server.service.AgentStatsCounters;
+import com.managementagent.server.service.ServiceOverloadedException;
 import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
+import io.javalin.http.Header;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.sse.SseHandler;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.sql.SQLTimeoutException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
 
 /**
  * REST controller exposing CRUD endpoints.
  */
 public class AgentController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentController.class);
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final int IMPORT_BUFFER_SIZE = 64 * 1024;
+    private static final String RETRY_AFTER_SECONDS = "1";
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
     private final AgentService agentService;
-    private final ObjectMapper objectMapper;
+    private final PushAgentListener pushListener;
+    private final AgentListSnapshot listSnapshot;
+    private final AgentStatsCounters statsCounters;
+    private final AgentSearchIndex searchIndex;
+    private final AgentImporter importer;
+    private final RequestDeadlines deadlines;
+    private final ReadYourWrites readYourWrites;
+    private final List<WireFormat> formats;
 
-    public AgentController(AgentService agentService, ObjectMapper objectMapper) {
+    public AgentController(AgentService agentService, PushAgentListener pushListener, AgentListSnapshot listSnapshot,
+                           AgentStatsCounters statsCounters, AgentSearchIndex searchIndex, AgentImporter importer,
+                           RequestDeadlines deadlines, ReadYourWrites readYourWrites, ObjectMapper objectMapper) {
         this.agentService = agentService;
-        this.objectMapper = objectMapper;
+        this.pushListener = pushListener;
+        this.listSnapshot = listSnapshot;
+        this.statsCounters = statsCounters;
+        this.searchIndex = searchIndex;
+        this.importer = importer;
+        this.deadlines = deadlines;
+        this.readYourWrites = readYourWrites;
+        this.formats = WireFormat.all(objectMapper);
     }
 
     public void registerRoutes(Javalin app) {
         app.get("/agents", this::getAllAgents);
+        app.get("/agents/changes", this::getChanges);
+        app.get("/agents/stats", this::getStats);
+        app.get("/agents/search", this::searchAgents);
+        app.get("/agents/export", this::exportAgents);
+        app.get("/agents/events", this::subscribeToEvents);
         app.get("/agents/{id}", this::getAgentById);
         app.post("/agents", this::createAgent);
+        app.post("/agents/import", this::importAgents);
         app.put("/agents/{id}", this::updateAgent);
         app.delete("/agents/{id}", this::deleteAgent);
     }
 
     private void getAllAgents(Context ctx) {
-        ctx.future(agentService.getAllAgentsAsync()
-                .thenAccept(ctx::json)
+        if (Boolean.parseBoolean(ctx.queryParam("stream"))) {
+            streamAllAgents(ctx);
+        } else if (ctx.queryParam("region") != null || ctx.queryParam("status") != null
+                || ctx.queryParam("codePrefix") != null || ctx.queryParam("sort") != null) {
+            findAgents(ctx);
+        } else if (ctx.queryParam("after") != null || ctx.queryParam("limit") != null) {
+            getAgentPage(ctx);
+        } else {
+            QueryDeadline deadline = deadlines.forRead(ctx);
+            ReadRouting routing = readYourWrites.forRead(ctx);
+            // The snapshot rebuild is shared by every waiting request, so only this request's wait is bounded.
+            respondIfCollectionModified(ctx, deadline, routing, version ->
+                    deadline.bound(routed(routing, () -> listSnapshot.get(version)))
+                            .thenAccept(snapshot -> writeSnapshot(ctx, snapshot)));
+        }
+    }
+
+    private void getAgentPage(Context ctx) {
+        long after = ctx.queryParamAsClass("after", Long.class)
+                .check(value -> value >= 0, "after must not be negative")
+                .getOrDefault(0L);
+        int limit = ctx.queryParamAsClass("limit", Integer.class)
+                .check(value -> value > 0 && value <= MAX_PAGE_SIZE, "limit must be between 1 and " + MAX_PAGE_SIZE)
+                .getOrDefault(DEFAULT_PAGE_SIZE);
+        QueryDeadline deadline = deadlines.forRead(ctx);
+        ReadRouting routing = readYourWrites.forRead(ctx);
+        respondIfCollectionModified(ctx, deadline, routing, version -> submit(deadline, routing,
+                () -> agentService.getAgentPageAsync(after, limit)).thenAccept(page -> write(ctx, page)));
+    }
+
+    private void findAgents(Context ctx) {
+        AgentQuery query = new AgentQuery();
+        query.setRegion(ctx.queryParam("region"));
+        if (ctx.queryParam("status") != null) {
+            try {
+                query.setStatus(knownStatus(ctx.queryParam("status")));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestResponse(e.getMessage());
+            }
+        }
+        query.setCodePrefix(ctx.queryParam("codePrefix"));
+        String sort = ctx.queryParam("sort");
+        if (sort != null) {
+            boolean descending = sort.startsWith("-");
+            try {
+                query.setSortField(AgentSortField.fromParameter(descending ? sort.substring(1) : sort));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestResponse(e.getMessage());
+            }
+            query.setDescending(descending);
+        }
+        if (ctx.queryParam("after") != null) {
+            if (query.getSortField() != AgentSortField.ID || query.isDescending()) {
+                throw new BadRequestResponse("after can only be combined with ascending id ordering");
+            }
+            query.setAfterId(ctx.queryParamAsClass("after", Long.class)
+                    .check(value -> value >= 0, "after must not be negative")
+                    .get());
+        }
+        query.setLimit(ctx.queryParamAsClass("limit", Integer.class)
+                .allowNullable()
+                .check(value -> value == null || (value > 0 && value <= MAX_PAGE_SIZE),
+                        "limit must be between 1 and " + MAX_PAGE_SIZE)
+                .get());
+        QueryDeadline deadline = deadlines.forRead(ctx);
+        ReadRouting routing = readYourWrites.forRead(ctx);
+        respondIfCollectionModified(ctx, deadline, routing, version -> submit(deadline, routing,
+                () -> agentService.findAgentsAsync(query)).thenAccept(agents -> write(ctx, agents)));
+    }
+
+    /**
+     * Answers {@code 304} when the client already holds the current collection
+     * version, before any list query or serialization runs. The version is read
+     * first, so the body sent otherwise is never older than its ETag. The
+     * response function runs on whichever thread completed the version read,
+     * so it must install the deadline and routing itself for the calls it
+     * makes; sharing the routing keeps version and body on the same database.
+     */
+    private void respondIfCollectionModified(Context ctx, QueryDeadline deadline, ReadRouting routing,
+                                             Function<Long, CompletableFuture<Void>> response) {
+        ctx.future(() -> submit(deadline, routing, agentService::getCollectionVersionAsync)
+                .thenCompose(version -> {
+                    String etag = entityTag(version);
+                    ctx.header(Header.ETAG, etag);
+                    if (matchesIfNoneMatch(ctx, etag)) {
+                        ctx.status(HttpStatus.NOT_MODIFIED);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return response.apply(version);
+                })
+                .exceptionally(throwable -> handleError(ctx, throwable)));
+    }
+
+    private void getChanges(Context ctx) {
+        long since = ctx.queryParamAsClass("since", Long.class)
+                .check(value -> value >= 0, "since must not be negative")
+                .getOrDefault(0L);
+        QueryDeadline deadline = deadlines.forRead(ctx);
+        ctx.future(() -> deadline.call(() -> agentService.getChangesAsync(since))
+                .thenAccept(changes -> write(ctx, changes))
                 .exceptionally(throwable -> handleError(ctx, throwable)));
     }
 
+    /**
+     * Served from in-memory counters, so it costs no query and needs no deadline.
+     */
+    private void getStats(Context ctx) {
+        write(ctx, statsCounters.getStats());
+    }
+
+    /**
+     * Answered from the in-memory index like {@link #getStats(Context)}; never a {@code LIKE} scan.
+     */
+    private void searchAgents(Context ctx) {
+        String query = ctx.queryParamAsClass("q", String.class)
+                .check(value -> !value.isBlank(), "q must not be blank")
+                .get();
+        int limit = ctx.queryParamAsClass("limit", Integer.class)
+                .check(value -> value > 0 && value <= MAX_SEARCH_LIMIT,
+                        "limit must be between 1 and " + MAX_SEARCH_LIMIT)
+                .getOrDefault(DEFAULT_SEARCH_LIMIT);
+        write(ctx, searchIndex.search(query, limit));
+    }
+
+    private void streamAllAgents(Context ctx) {
+        WireFormat format = responseFormat(ctx);
+        ctx.contentType(format.getMediaType()).header(Header.VARY, Header.ACCEPT);
+        ReadRouting routing = readYourWrites.forRead(ctx);
+        AtomicBoolean started = new AtomicBoolean();
+        ctx.future(() -> routed(routing, () -> agentService.streamAllAgentsAsync(() -> {
+                    started.set(true);
+                    return new ArrayStream(ctx, format);
+                }))
+                .thenAccept(ArrayStream::close)
+                .exceptionally(throwable -> handleStreamError(ctx, started.get(), throwable)));
+    }
+
+    /**
+     * Like {@code ?stream=true}, but one agent per line in NDJSON or CSV,
+     * gzip-compressed here when the client accepts it.
+     */
+    private void exportAgents(Context ctx) {
+        AgentExportWriter.Format format = fileFormat(ctx);
+        String acceptEncoding = ctx.header(Header.ACCEPT_ENCODING);
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        ctx.contentType(format.getMediaType())
+                .header(Header.CONTENT_DISPOSITION, "attachment; filename=\"" + format.getFileName() + "\"")
+                .header(Header.VARY, Header.ACCEPT_ENCODING);
+        if (gzip) {
+            // With Content-Encoding already set Javalin leaves the stream alone instead of compressing it again.
+            ctx.header(Header.CONTENT_ENCODING, "gzip");
+        }
+        ReadRouting routing = readYourWrites.forRead(ctx);
+        AtomicBoolean started = new AtomicBoolean();
+        ctx.future(() -> routed(routing, () -> agentService.streamAllAgentsAsync(() -> {
+                    started.set(true);
+                    return AgentExportWriter.open(format, ctx.outputStream(), gzip);
+                }))
+                .thenAccept(AgentExportWriter::finish)
+                .exceptionally(throwable -> handleStreamError(ctx, started.get(), throwable)));
+    }
+
+    /**
+     * Parses a status filter; {@link AgentStatus#SCONOSCIUTO} is refused as no stored row carries it.
+     *
+     * @throws IllegalArgumentException for a status that cannot be filtered on
+     */
+    private static AgentStatus knownStatus(String code) {
+        AgentStatus status = AgentStatus.fromCode(code);
+        if (!status.isKnown()) {
+            throw new IllegalArgumentException("Unsupported agent status filter: " + code);
+        }
+        return status;
+    }
+
+    private static AgentExportWriter.Format fileFormat(Context ctx) {
+        return AgentExportWriter.Format.fromName(ctx.queryParamAsClass("format", String.class)
+                .check(value -> AgentExportWriter.Format.fromName(value) != null, "format must be ndjson or csv")
+                .getOrDefault("ndjson"));
+    }
+
     private void getAgentById(Context ctx) {
         long id = Long.parseLong(ctx.pathParam("id"));
-        ctx.future(agentService.getAgentByIdAsync(id)
-                .thenAccept(optional -> optional.ifPresentOrElse(ctx::json, () -> ctx.status(404)))
+        QueryDeadline deadline = deadlines.forRead(ctx);
+        ReadRouting routing = readYourWrites.forRead(ctx);
+        ctx.future(() -> submit(deadline, routing, () -> agentService.getAgentByIdAsync(id))
+                .thenAccept(optional -> optional.ifPresentOrElse(agent -> writeAgentIfModified(ctx, agent),
+                        () -> ctx.status(404)))
                 .exceptionally(throwable -> handleError(ctx, throwable)));
     }
 
+    /**
+     * Opens the SSE stream once the filters are valid; a bad {@code status} is
+     * answered with {@code 400} before any event-stream header is sent.
+     */
+    private void subscribeToEvents(Context ctx) throws Exception {
+        String region = ctx.queryParam("region");
+        AgentStatus status = null;
+        if (ctx.queryParam("status") != null) {
+            try {
+                status = knownStatus(ctx.queryParam("status"));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestResponse(e.getMessage());
+            }
+        }
+        AgentStatus filter = status;
+        new SseHandler(client -> pushListener.subscribe(client, region, filter)).handle(ctx);
+    }
+
     private void createAgent(Context ctx) {
         AgentRequest request = readBody(ctx, AgentRequest.class);
-        ctx.future(agentService.createAgentAsync(request)
-                .thenAccept(agent -> ctx.status(201).json(agent))
+        if (request.getStatus() != null && !request.getStatus().isKnown()) {
+            throw new BadRequestResponse("A new agent needs a known status");
+        }
+        QueryDeadline deadline = deadlines.forWrite(ctx);
+        ctx.future(() -> deadline.call(() -> agentService.createAgentAsync(request))
+                .thenAccept(agent -> {
+                    readYourWrites.afterWrite(ctx);
+                    writeAgent(ctx.status(201), agent);
+                })
+                .exceptionally(throwable -> handleError(ctx, throwable)));
+    }
+
+    /**
+     * Creates agents in bulk from an NDJSON or CSV upload, read as it arrives
+     * rather than buffered; see {@link AgentImporter}. The body may be sent
+     * gzip-compressed with {@code Content-Encoding: gzip}.
+     */
+    private void importAgents(Context ctx) {
+        AgentExportWriter.Format format = fileFormat(ctx);
+        AgentImportReader source;
+        try {
+            InputStream body = ctx.bodyInputStream();
+            if ("gzip".equalsIgnoreCase(ctx.header(Header.CONTENT_ENCODING))) {
+                body = new GZIPInputStream(body, IMPORT_BUFFER_SIZE);
+            }
+            source = AgentImportReader.open(format, body, formats.get(0).getMapper());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestResponse(e.getMessage());
+        } catch (IOException e) {
+            throw new BadRequestResponse("Unreadable request body");
+        }
+        ctx.future(() -> agentService.importAgentsAsync(importer, source)
+                .thenAccept(result -> {
+                    if (result.getAccepted() > 0) {
+                        readYourWrites.afterWrite(ctx);
+                    }
+                    write(ctx, result);
+                })
                 .exceptionally(throwable -> handleError(ctx, throwable)));
     }
 
     private void updateAgent(Context ctx) {
         long id = Long.parseLong(ctx.pathParam("id"));
+        Long expectedVersion = ifMatchVersion(ctx);
         AgentRequest request = readBody(ctx, AgentRequest.class);
-        ctx.future(agentService.updateAgentAsync(id, request)
-                .thenAccept(optional -> optional.ifPresentOrElse(ctx::json, () -> ctx.status(404)))
+        QueryDeadline deadline = deadlines.forWrite(ctx);
+        ctx.future(() -> deadline.call(() -> agentService.updateAgentAsync(id, request, expectedVersion))
+                .thenAccept(optional -> optional.ifPresentOrElse(agent -> {
+                    readYourWrites.afterWrite(ctx);
+                    writeAgent(ctx, agent);
+                }, () -> ctx.status(404)))
                 .exceptionally(throwable -> handleError(ctx, throwable)));
     }
 
     private void deleteAgent(Context ctx) {
         long id = Long.parseLong(ctx.pathParam("id"));
-        ctx.future(agentService.deleteAgentAsync(id)
+        Long expectedVersion = ifMatchVersion(ctx);
+        QueryDeadline deadline = deadlines.forWrite(ctx);
+        ctx.future(() -> deadline.call(() -> agentService.deleteAgentAsync(id, expectedVersion))
                 .thenAccept(deleted -> {
                     if (deleted) {
+                        readYourWrites.afterWrite(ctx);
                         ctx.status(204);
                     } else {
                         ctx.status(404);
@@ -68,16 +385,240 @@ public class AgentController {
                 .exceptionally(throwable -> handleError(ctx, throwable)));
     }
 
+    /**
+     * Submits a service call under the request's deadline and read routing.
+     */
+    private static <T> CompletableFuture<T> submit(QueryDeadline deadline, ReadRouting routing,
+                                                   Supplier<CompletableFuture<T>> call) {
+        return deadline.call(() -> routed(routing, call));
+    }
+
+    private static <T> T routed(ReadRouting routing, Supplier<T> call) {
+        return routing != null ? routing.call(call) : call.get();
+    }
+
+    private WireFormat responseFormat(Context ctx) {
+        return WireFormat.forAccept(formats, ctx.header(Header.ACCEPT));
+    }
+
+    /**
+     * Writes the body in the format the client asked for; JSON goes through
+     * Javalin's mapper, binary formats are encoded here.
+     */
+    private void write(Context ctx, Object body) {
+        WireFormat format = responseFormat(ctx);
+        ctx.header(Header.VARY, Header.ACCEPT);
+        if (format.isJson()) {
+            ctx.json(body);
+            return;
+        }
+        try {
+            ctx.contentType(format.getMediaType()).result(format.getMapper().writeValueAsBytes(body));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode response as " + format.getMediaType(), e);
+        }
+    }
+
+    private void writeSnapshot(Context ctx, AgentListSnapshot.Snapshot snapshot) {
+        WireFormat format = responseFormat(ctx);
+        ctx.header(Header.ETAG, entityTag(snapshot.getVersion()))
+                .header(Header.VARY, Header.ACCEPT + ", " + Header.ACCEPT_ENCODING)
+                .contentType(format.getMediaType());
+        if (!format.isJson()) {
+            ctx.result(snapshot.getEncoded(format.getMapper()));
+            return;
+        }
+        String acceptEncoding = ctx.header(Header.ACCEPT_ENCODING);
+        if (snapshot.getGzipJson() != null && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            // With Content-Encoding already set Javalin leaves the body alone instead of compressing it again.
+            ctx.header(Header.CONTENT_ENCODING, "gzip").result(snapshot.getGzipJson());
+        } else {
+            ctx.result(snapshot.getJson());
+        }
+    }
+
+    private void writeAgent(Context ctx, Agent agent) {
+        ctx.header(Header.ETAG, entityTag(agent.getVersion()));
+        if (agent.getLastUpdate() != null) {
+            ctx.header(Header.LAST_MODIFIED, HTTP_DATE.format(agent.getLastUpdate().atZone(ZoneId.systemDefault())));
+        }
+        write(ctx, agent);
+    }
+
+    private void writeAgentIfModified(Context ctx, Agent agent) {
+        String etag = entityTag(agent.getVersion());
+        boolean notModified = ctx.header(Header.IF_NONE_MATCH) != null
+                ? matchesIfNoneMatch(ctx, etag)
+                : notModifiedSince(ctx, agent.getLastUpdate());
+        if (notModified) {
+            ctx.status(HttpStatus.NOT_MODIFIED).header(Header.ETAG, etag);
+        } else {
+            writeAgent(ctx, agent);
+        }
+    }
+
+    private static String entityTag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    private static boolean matchesIfNoneMatch(Context ctx, String etag) {
+        String ifNoneMatch = ctx.header(Header.IF_NONE_MATCH);
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            // If-None-Match uses weak comparison.
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If-Modified-Since is only consulted without If-None-Match, as HTTP requires.
+     * Dates have second precision, so the stored timestamp is truncated first.
+     */
+    private static boolean notModifiedSince(Context ctx, LocalDateTime lastUpdate) {
+        String ifModifiedSince = ctx.header(Header.IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null || lastUpdate == null) {
+            return false;
+        }
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE);
+            return !lastUpdate.atZone(ZoneId.systemDefault()).truncatedTo(ChronoUnit.SECONDS).isAfter(since);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the version a conditional write expects from {@code If-Match};
+     * {@code null} when the header is absent or {@code *}.
+     */
+    private Long ifMatchVersion(Context ctx) {
+        String ifMatch = ctx.header(Header.IF_MATCH);
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        try {
+            return Long.parseLong(tag.replace("\"", ""));
+        } catch (NumberFormatException e) {
+            // An ETag this server never issued cannot match the current representation.
+            throw new HttpResponseException(HttpStatus.PRECONDITION_FAILED.getCode(), "Unknown entity tag " + ifMatch);
+        }
+    }
+
     private <T> T readBody(Context ctx, Class<T> clazz) {
+        WireFormat format = WireFormat.forContentType(formats, ctx.contentType());
         try {
-            return objectMapper.readValue(ctx.body(), clazz);
+            return format.getMapper().readValue(ctx.bodyAsBytes(), clazz);
         } catch (Exception e) {
-            throw new IllegalArgumentException("Invalid request body", e);
+            // Malformed bodies and unknown statuses are the client's fault, not a server error.
+            throw new BadRequestResponse("Invalid request body");
+        }
+    }
+
+    /**
+     * Writes the agents of a {@code ?stream=true} response as one array.
+     */
+    private static final class ArrayStream implements Consumer<Agent> {
+
+        private final WireFormat format;
+        private final JsonGenerator generator;
+
+        ArrayStream(Context ctx, WireFormat format) {
+            this.format = format;
+            try {
+                // Javalin closes the response stream once the future completes.
+                this.generator = format.getMapper().getFactory().createGenerator(ctx.outputStream())
+                        .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open response stream", e);
+            }
+        }
+
+        @Override
+        public void accept(Agent agent) {
+            try {
+                format.getStreamWriter().writeValue(generator, agent);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to write agent " + agent.getId(), e);
+            }
+        }
+
+        void close() {
+            try {
+                generator.writeEndArray();
+                generator.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to close response stream", e);
+            }
         }
     }
 
     private Void handleError(Context ctx, Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        if (cause instanceof StaleAgentException) {
+            ctx.status(HttpStatus.PRECONDITION_FAILED).result(cause.getMessage());
+            return null;
+        }
+        if (cause instanceof SyncTokenExpiredException) {
+            ctx.status(HttpStatus.GONE).result(cause.getMessage());
+            return null;
+        }
+        if (isDeadlineExceeded(cause)) {
+            ctx.status(HttpStatus.GATEWAY_TIMEOUT).result("Request deadline exceeded");
+            return null;
+        }
+        if (cause instanceof ServiceOverloadedException) {
+            ctx.status(HttpStatus.SERVICE_UNAVAILABLE).header(Header.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .result(cause.getMessage());
+            return null;
+        }
         ctx.status(500).result("Server error: " + throwable.getMessage());
         return null;
     }
+
+    /**
+     * Once a streamed body has started its status is sent and may already be
+     * on the wire, so no error status can follow. The connection is dropped
+     * instead: the client sees a truncated transfer rather than a body that
+     * looks complete, and a write still running on the bulk thread fails.
+     */
+    private Void handleStreamError(Context ctx, boolean started, Throwable throwable) {
+        if (!started) {
+            return handleError(ctx, throwable);
+        }
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        LOGGER.warn("Aborting streamed response to {}: {}", ctx.path(), cause.toString());
+        try {
+            Request.getBaseRequest(ctx.req()).getHttpChannel().abort(cause);
+        } catch (RuntimeException e) {
+            LOGGER.debug("Unable to abort streamed response", e);
+        }
+        return null;
+    }
+
+    /**
+     * A timed-out wait, a query skipped because no time was left, or a query
+     * the driver aborted on its own timeout (wrapped by the DAO).
+     */
+    private static boolean isDeadlineExceeded(Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof DeadlineExceededException
+                    || cause instanceof SQLTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,388 @@
+package com.managementagent.server.controller;
+
+import com.managementagent.server.model.Agent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes agents one line at a time for {@code GET /agents/export}, as NDJSON
+ * or CSV, optionally gzip-compressed. Lines are encoded straight into a
+ * buffer that is reused for the whole export, so memory does not grow with
+ * the row count and no intermediate strings or trees are built per agent.
+ */
+public abstract class AgentExportWriter implements Consumer<Agent> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longest encoding of one char: a six-byte JSON unicode escape.
+    private static final int MAX_CHAR_BYTES = 6;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    public enum Format {
+        NDJSON("application/x-ndjson"),
+        CSV("text/csv; charset=utf-8");
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        public String getFileName() {
+            return "agents." + name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * @return the format, or {@code null} for a name this server does not export
+         */
+        public static Format fromName(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final GZIPOutputStream gzip;
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+
+    private AgentExportWriter(OutputStream response, boolean gzipEnabled) throws IOException {
+        this.gzip = gzipEnabled ? new FastGzipOutputStream(response) : null;
+        this.out = gzipEnabled ? gzip : response;
+    }
+
+    /**
+     * Opens a writer and writes the format's header, if any. The response
+     * stream is left open; the caller must {@link #finish()} the writer.
+     */
+    public static AgentExportWriter open(Format format, OutputStream response, boolean gzipEnabled) {
+        try {
+            return format == Format.CSV
+                    ? new CsvWriter(response, gzipEnabled)
+                    : new NdjsonWriter(response, gzipEnabled);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open export stream", e);
+        }
+    }
+
+    @Override
+    public void accept(Agent agent) {
+        try {
+            write(agent);
+        } catch (IOException e) {
+            // Usually the client going away; failing the stream stops the query.
+            throw new UncheckedIOException("Unable to export agent " + agent.getId(), e);
+        }
+    }
+
+    /**
+     * Flushes what is still buffered and ends the gzip stream.
+     */
+    public void finish() {
+        try {
+            flush();
+            if (gzip != null) {
+                gzip.finish();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to finish export stream", e);
+        }
+    }
+
+    abstract void write(Agent agent) throws IOException;
+
+    private void flush() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flush();
+        }
+    }
+
+    void writeAscii(byte[] bytes) throws IOException {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    void writeByte(char c) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) c;
+    }
+
+    void writeLong(long value) throws IOException {
+        if (value < 0) {
+            writeByte('-');
+            if (value == Long.MIN_VALUE) {
+                writeAscii("9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            value = -value;
+        }
+        ensure(19);
+        int end = position + digits(value);
+        position = end;
+        do {
+            buffer[--end] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes a timestamp the way the JSON mapper does, as ISO-8601 with
+     * seconds and only the fraction digits that are needed.
+     */
+    void writeDateTime(LocalDateTime value) throws IOException {
+        if (value.getYear() < 0 || value.getYear() > 9999) {
+            writeAscii(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(value).getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ensure(29);
+        writeDigits(value.getYear(), 4);
+        buffer[position++] = '-';
+        writeDigits(value.getMonthValue(), 2);
+        buffer[position++] = '-';
+        writeDigits(value.getDayOfMonth(), 2);
+        buffer[position++] = 'T';
+        writeDigits(value.getHour(), 2);
+        buffer[position++] = ':';
+        writeDigits(value.getMinute(), 2);
+        buffer[position++] = ':';
+        writeDigits(value.getSecond(), 2);
+        int nanos = value.getNano();
+        if (nanos != 0) {
+            int width = 9;
+            while (nanos % 10 == 0) {
+                nanos /= 10;
+                width--;
+            }
+            buffer[position++] = '.';
+            writeDigits(nanos, width);
+        }
+    }
+
+    private void writeDigits(int value, int width) {
+        for (int i = position + width - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position += width;
+    }
+
+    /**
+     * Encodes text as UTF-8, escaped for a JSON string or, without
+     * {@code json}, with quotes doubled as in a quoted CSV field.
+     */
+    void writeText(String text, boolean json) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            ensure(MAX_CHAR_BYTES);
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (c == '"') {
+                    buffer[position++] = (byte) (json ? '\\' : '"');
+                    buffer[position++] = '"';
+                } else if (json && (c == '\\' || c < 0x20)) {
+                    writeEscape(c);
+                } else {
+                    buffer[position++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates have no UTF-8 form; String.getBytes replaces them the same way.
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xE0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                buffer[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+    }
+
+    private void writeEscape(char c) {
+        buffer[position++] = '\\';
+        switch (c) {
+            case '\\' -> buffer[position++] = '\\';
+            case '\n' -> buffer[position++] = 'n';
+            case '\r' -> buffer[position++] = 'r';
+            case '\t' -> buffer[position++] = 't';
+            default -> {
+                buffer[position++] = 'u';
+                buffer[position++] = '0';
+                buffer[position++] = '0';
+                buffer[position++] = HEX[c >> 4];
+                buffer[position++] = HEX[c & 0xF];
+            }
+        }
+    }
+
+    /**
+     * One JSON object per line, with the properties and layout of
+     * {@code GET /agents}; keep in step with {@link Agent}.
+     */
+    private static final class NdjsonWriter extends AgentExportWriter {
+        private static final byte[] ID = ascii("{\"id\":");
+        private static final byte[] CODE = ascii(",\"code\":");
+        private static final byte[] NAME = ascii(",\"name\":");
+        private static final byte[] REGION = ascii(",\"region\":");
+        private static final byte[] STATUS = ascii(",\"status\":");
+        private static final byte[] LAST_UPDATE = ascii(",\"lastUpdate\":");
+        private static final byte[] VERSION = ascii(",\"version\":");
+        private static final byte[] NULL = ascii("null");
+
+        private NdjsonWriter(OutputStream response, boolean gzipEnabled) throws IOException {
+            super(response, gzipEnabled);
+        }
+
+        @Override
+        void write(Agent agent) throws IOException {
+            writeAscii(ID);
+            writeLong(agent.getId());
+            writeAscii(CODE);
+            writeString(agent.getCode());
+            writeAscii(NAME);
+            writeString(agent.getName());
+            writeAscii(REGION);
+            writeString(agent.getRegion());
+            writeAscii(STATUS);
+            writeString(agent.getStatus() != null ? agent.getStatus().getCode() : null);
+            writeAscii(LAST_UPDATE);
+            if (agent.getLastUpdate() != null) {
+                writeByte('"');
+                writeDateTime(agent.getLastUpdate());
+                writeByte('"');
+            } else {
+                writeAscii(NULL);
+            }
+            writeAscii(VERSION);
+            writeLong(agent.getVersion());
+            writeByte('}');
+            writeByte('\n');
+        }
+
+        private void writeString(String text) throws IOException {
+            if (text == null) {
+                writeAscii(NULL);
+                return;
+            }
+            writeByte('"');
+            writeText(text, true);
+            writeByte('"');
+        }
+    }
+
+    /**
+     * RFC 4180 CSV with a header row; {@code null} is an empty field.
+     */
+    private static final class CsvWriter extends AgentExportWriter {
+        private static final byte[] HEADER = ascii("id,code,name,region,status,lastUpdate,version\r\n");
+
+        private CsvWriter(OutputStream response, boolean gzipEnabled) throws IOException {
+            super(response, gzipEnabled);
+            writeAscii(HEADER);
+        }
+
+        @Override
+        void write(Agent agent) throws IOException {
+            writeLong(agent.getId());
+            writeByte(',');
+            writeField(agent.getCode());
+            writeByte(',');
+            writeField(agent.getName());
+            writeByte(',');
+            writeField(agent.getRegion());
+            writeByte(',');
+            if (agent.getStatus() != null) {
+                writeField(agent.getStatus().getCode());
+            }
+            writeByte(',');
+            if (agent.getLastUpdate() != null) {
+                writeDateTime(agent.getLastUpdate());
+            }
+            writeByte(',');
+            writeLong(agent.getVersion());
+            writeByte('\r');
+            writeByte('\n');
+        }
+
+        /**
+         * Quotes the field only when it holds a separator, a quote or a line break.
+         */
+        private void writeField(String text) throws IOException {
+            if (text == null) {
+                return;
+            }
+            boolean quoted = needsQuotes(text);
+            if (quoted) {
+                writeByte('"');
+            }
+            writeText(text, false);
+            if (quoted) {
+                writeByte('"');
+            }
+        }
+
+        private static boolean needsQuotes(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gzip at the fastest level: an export is bound by compression time long
+     * before the ratio matters.
+     */
+    private static final class FastGzipOutputStream extends GZIPOutputStream {
+        private FastGzipOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.managementagent.server.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.service.AgentImporter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the records of a {@code POST /agents/import} upload straight from the
+ * request body, one at a time, in the formats {@link AgentExportWriter}
+ * writes: NDJSON or CSV with a header row. Properties the import does not
+ * use, such as the id and version of an export, are ignored, so an export
+ * can be imported again as it is.
+ */
+abstract class AgentImportReader implements AgentImporter.Source {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private long lineNumber;
+    private long recordLine;
+
+    private AgentImportReader(InputStream body) {
+        this.reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a reader over the body; for CSV this reads the header row.
+     *
+     * @throws IllegalArgumentException if the CSV header lacks a required column
+     */
+    static AgentImportReader open(AgentExportWriter.Format format, InputStream body, ObjectMapper jsonMapper)
+            throws IOException {
+        return format == AgentExportWriter.Format.CSV ? new CsvReader(body) : new NdjsonReader(body, jsonMapper);
+    }
+
+    @Override
+    public String next() throws IOException {
+        String line;
+        do {
+            line = readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.isBlank());
+        recordLine = lineNumber;
+        return completeRecord(line);
+    }
+
+    @Override
+    public long line() {
+        return recordLine;
+    }
+
+    String readLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    /**
+     * Extends a record whose first line is given over the lines it spans.
+     */
+    String completeRecord(String firstLine) throws IOException {
+        return firstLine;
+    }
+
+    private static final class NdjsonReader extends AgentImportReader {
+        private final ObjectReader requestReader;
+
+        private NdjsonReader(InputStream body, ObjectMapper jsonMapper) {
+            super(body);
+            this.requestReader = jsonMapper.readerFor(AgentRequest.class)
+                    .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        }
+
+        @Override
+        public AgentRequest parse(String record) {
+            try {
+                return requestReader.readValue(record);
+            } catch (JsonProcessingException e) {
+                // Unknown statuses surface here too, wrapped by Jackson.
+                throw new IllegalArgumentException("Invalid record: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private static final class CsvReader extends AgentImportReader {
+        private final int codeColumn;
+        private final int nameColumn;
+        private final int regionColumn;
+        private final int statusColumn;
+
+        private CsvReader(InputStream body) throws IOException {
+            super(body);
+            String header = readLine();
+            if (header == null) {
+                throw new IllegalArgumentException("Missing CSV header");
+            }
+            List<String> columns = new ArrayList<>();
+            for (String column : split(header)) {
+                columns.add(column.trim().toLowerCase(Locale.ROOT));
+            }
+            this.codeColumn = column(columns, "code");
+            this.nameColumn = column(columns, "name");
+            this.regionColumn = column(columns, "region");
+            this.statusColumn = column(columns, "status");
+        }
+
+        private static int column(List<String> columns, String name) {
+            int index = columns.indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("CSV header has no " + name + " column");
+            }
+            return index;
+        }
+
+        @Override
+        String completeRecord(String firstLine) throws IOException {
+            StringBuilder record = null;
+            String current = firstLine;
+            // An odd number of quotes so far means a quoted field continues on the next line.
+            while (hasOpenQuote(record != null ? record : current)) {
+                String next = readLine();
+                if (next == null) {
+                    break;
+                }
+                if (record == null) {
+                    record = new StringBuilder(current);
+                }
+                record.append('\n').append(next);
+            }
+            return record != null ? record.toString() : current;
+        }
+
+        private static boolean hasOpenQuote(CharSequence text) {
+            boolean open = false;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '"') {
+                    open = !open;
+                }
+            }
+            return open;
+        }
+
+        @Override
+        public AgentRequest parse(String record) {
+            List<String> fields = split(record);
+            AgentRequest request = new AgentRequest();
+            request.setCode(field(fields, codeColumn));
+            request.setName(field(fields, nameColumn));
+            request.setRegion(field(fields, regionColumn));
+            String status = field(fields, statusColumn);
+            if (status != null) {
+                request.setStatus(AgentStatus.fromCode(status));
+            }
+            return request;
+        }
+
+        private static String field(List<String> fields, int column) {
+            if (column >= fields.size() || fields.get(column).isEmpty()) {
+                return null;
+            }
+            return fields.get(column);
+        }
+
+        /**
+         * Splits an RFC 4180 record: fields may be quoted, with quotes inside doubled.
+         */
+        private static List<String> split(String record) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < record.length(); i++) {
+                char c = record.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
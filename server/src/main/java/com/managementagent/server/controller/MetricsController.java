@@ -0,0 +1,27 @@
+package com.managementagent.server.controller;
+
+import com.managementagent.server.metrics.MetricsRegistry;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+/**
+ * Exposes the server metrics in the Prometheus text format.
+ */
+public class MetricsController {
+
+    private static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    public MetricsController(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void registerRoutes(Javalin app) {
+        app.get("/metrics", this::getMetrics);
+    }
+
+    private void getMetrics(Context ctx) {
+        ctx.contentType(PROMETHEUS_TEXT).result(registry.scrape());
+    }
+}
@@ -0,0 +1,56 @@
+package com.managementagent.server.controller;
+
+import com.managementagent.server.dao.ReadRouting;
+import com.managementagent.server.dao.ReplicaRouter;
+import io.javalin.http.Context;
+
+/**
+ * Picks where each request reads from when replicas are configured. A
+ * successful write sets the {@value #COOKIE} cookie, and the client's reads go
+ * to the primary until it expires, so it sees its own changes even while the
+ * replicas lag behind.
+ */
+public class ReadYourWrites {
+
+    static final String COOKIE = "agents-primary-until";
+
+    private final ReplicaRouter router;
+    private final long pinMillis;
+
+    /**
+     * @param router {@code null} without replicas, in which case every read goes to the only database
+     */
+    public ReadYourWrites(ReplicaRouter router, long pinMillis) {
+        this.router = router;
+        this.pinMillis = pinMillis;
+    }
+
+    /**
+     * The routing for the reads of this request, or {@code null} without replicas.
+     */
+    ReadRouting forRead(Context ctx) {
+        if (router == null) {
+            return null;
+        }
+        return router.route(isPinned(ctx));
+    }
+
+    void afterWrite(Context ctx) {
+        if (router != null && pinMillis > 0) {
+            long until = System.currentTimeMillis() + pinMillis;
+            ctx.cookie(COOKIE, Long.toString(until), (int) Math.max(1, (pinMillis + 999) / 1000));
+        }
+    }
+
+    private static boolean isPinned(Context ctx) {
+        String until = ctx.cookie(COOKIE);
+        if (until == null) {
+            return false;
+        }
+        try {
+            return Long.parseLong(until) > System.currentTimeMillis();
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
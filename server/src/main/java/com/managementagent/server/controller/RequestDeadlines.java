@@ -0,0 +1,49 @@
+package com.managementagent.server.controller;
+
+import com.managementagent.server.dao.QueryDeadline;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Per-route request deadlines. Clients may ask for a different budget with the
+ * {@value #HEADER} header, in milliseconds, capped at the configured maximum.
+ */
+public class RequestDeadlines {
+
+    static final String HEADER = "X-Request-Timeout";
+
+    private final long readMillis;
+    private final long writeMillis;
+    private final long maxMillis;
+
+    public RequestDeadlines(long readMillis, long writeMillis, long maxMillis) {
+        this.readMillis = readMillis;
+        this.writeMillis = writeMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    QueryDeadline forRead(Context ctx) {
+        return start(ctx, readMillis);
+    }
+
+    QueryDeadline forWrite(Context ctx) {
+        return start(ctx, writeMillis);
+    }
+
+    private QueryDeadline start(Context ctx, long routeMillis) {
+        String requested = ctx.header(HEADER);
+        if (requested == null) {
+            return QueryDeadline.after(routeMillis);
+        }
+        long millis;
+        try {
+            millis = Long.parseLong(requested.trim());
+        } catch (NumberFormatException e) {
+            throw new BadRequestResponse(HEADER + " must be a number of milliseconds");
+        }
+        if (millis <= 0) {
+            throw new BadRequestResponse(HEADER + " must be positive");
+        }
+        return QueryDeadline.after(Math.min(millis, maxMillis));
+    }
+}
@@ -0,0 +1,191 @@
+package com.managementagent.server.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.javalin.http.ContentType;
+import io.javalin.http.HttpResponseException;
+import io.javalin.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A body encoding the REST API can negotiate: JSON, or the binary Smile and
+ * CBOR formats, all sharing the modules and settings of the application mapper.
+ */
+final class WireFormat {
+
+    static final String SMILE = "application/x-jackson-smile";
+    static final String CBOR = "application/cbor";
+
+    private final String mediaType;
+    private final ObjectMapper mapper;
+    private final ObjectWriter streamWriter;
+
+    private WireFormat(String mediaType, ObjectMapper mapper) {
+        this.mediaType = mediaType;
+        this.mapper = mapper;
+        this.streamWriter = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Supported formats in order of preference, JSON first as the fallback.
+     */
+    static List<WireFormat> all(ObjectMapper jsonMapper) {
+        return List.of(
+                new WireFormat(ContentType.JSON, jsonMapper),
+                new WireFormat(SMILE, jsonMapper.copyWith(new SmileFactory())),
+                new WireFormat(CBOR, jsonMapper.copyWith(new CBORFactory())));
+    }
+
+    /**
+     * Picks the format an {@code Accept} header weighs highest, or the first
+     * (JSON) format when none is acceptable or the header is absent. Each
+     * format takes the q-value of the most specific range matching it, so
+     * {@code application/json;q=0} next to a full wildcard refuses JSON
+     * alone; ties go to the range named first, then to the formats' order.
+     */
+    static WireFormat forAccept(List<WireFormat> formats, String accept) {
+        if (accept == null) {
+            return formats.get(0);
+        }
+        List<MediaRange> ranges = MediaRange.parseAll(accept);
+        WireFormat best = null;
+        MediaRange bestRange = null;
+        for (WireFormat format : formats) {
+            MediaRange range = MediaRange.mostSpecific(ranges, format.mediaType);
+            if (range == null || range.quality <= 0) {
+                continue;
+            }
+            if (bestRange == null || range.quality > bestRange.quality
+                    || range.quality == bestRange.quality && range.position < bestRange.position) {
+                best = format;
+                bestRange = range;
+            }
+        }
+        return best != null ? best : formats.get(0);
+    }
+
+    /**
+     * Resolves a request {@code Content-Type}; bodies without one are read as JSON.
+     *
+     * @throws HttpResponseException with status 415 for a media type none of the formats reads
+     */
+    static WireFormat forContentType(List<WireFormat> formats, String contentType) {
+        if (contentType == null || contentType.isBlank()) {
+            return formats.get(0);
+        }
+        WireFormat format = find(formats, contentType.split(";")[0]);
+        if (format == null) {
+            throw new HttpResponseException(HttpStatus.UNSUPPORTED_MEDIA_TYPE.getCode(),
+                    "Unsupported Content-Type " + contentType);
+        }
+        return format;
+    }
+
+    boolean isJson() {
+        return ContentType.JSON.equals(mediaType);
+    }
+
+    String getMediaType() {
+        return mediaType;
+    }
+
+    ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Writer for element-by-element streaming, leaving flushing to the generator.
+     */
+    ObjectWriter getStreamWriter() {
+        return streamWriter;
+    }
+
+    private static WireFormat find(List<WireFormat> formats, String mediaType) {
+        String normalized = mediaType.trim().toLowerCase(Locale.ROOT);
+        for (WireFormat format : formats) {
+            if (format.mediaType.equals(normalized)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One range of an {@code Accept} header: a media type, a {@code type/*}
+     * range or the full wildcard, with its q-value (1 when absent or unreadable).
+     */
+    private static final class MediaRange {
+        private final String type;
+        private final double quality;
+        private final int position;
+
+        private MediaRange(String type, double quality, int position) {
+            this.type = type;
+            this.quality = quality;
+            this.position = position;
+        }
+
+        private static List<MediaRange> parseAll(String accept) {
+            List<MediaRange> ranges = new ArrayList<>();
+            for (String range : accept.split(",")) {
+                String[] parts = range.split(";");
+                String type = parts[0].trim().toLowerCase(Locale.ROOT);
+                if (!type.isEmpty()) {
+                    ranges.add(new MediaRange(type, quality(parts), ranges.size()));
+                }
+            }
+            return ranges;
+        }
+
+        private static double quality(String[] parts) {
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        return 1;
+                    }
+                }
+            }
+            return 1;
+        }
+
+        /**
+         * The range that applies to a media type: an exact match over
+         * {@code type/*}, over the full wildcard; {@code null} when none matches.
+         */
+        private static MediaRange mostSpecific(List<MediaRange> ranges, String mediaType) {
+            MediaRange best = null;
+            int bestSpecificity = -1;
+            for (MediaRange range : ranges) {
+                int specificity = range.specificity(mediaType);
+                if (specificity > bestSpecificity) {
+                    best = range;
+                    bestSpecificity = specificity;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * 2 for the media type itself, 1 for its {@code type/*}, 0 for the
+         * full wildcard, -1 when the range does not match it.
+         */
+        private int specificity(String mediaType) {
+            if (type.equals(mediaType)) {
+                return 2;
+            }
+            if (type.endsWith("/*") && mediaType.startsWith(type.substring(0, type.length() - 1))) {
+                return 1;
+            }
+            return "*/*".equals(type) ? 0 : -1;
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package com.managementagent.server.dao;
 
 import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStats;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.model.AgentUpdate;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * DAO pattern abstraction for the Agent entity.
@@ -12,11 +19,86 @@ public interface AgentDAO {
 
     List<Agent> findAll();
 
+    /**
+     * Returns at most {@code limit} agents with an id strictly greater than
+     * {@code afterId}, ordered by id.
+     */
+    List<Agent> findPage(long afterId, int limit);
+
+    /**
+     * Pushes every agent, ordered by id, to the consumer one row at a time
+     * without materialising the whole table.
+     */
+    void streamAll(Consumer<Agent> consumer);
+
     Optional<Agent> findById(long id);
 
+    List<Agent> findByRegion(String region);
+
+    List<Agent> findByStatus(AgentStatus status);
+
+    List<Agent> findByCode(String code);
+
+    List<Agent> findByQuery(AgentQuery query);
+
+    /**
+     * Returns agents written and ids deleted after the given sync token, which
+     * is a row version; {@code 0} returns every agent.
+     *
+     * @throws SyncTokenExpiredException if tombstones written after the token have been purged
+     */
+    AgentChanges findChangesSince(long token);
+
+    /**
+     * Drops the tombstones of deletions older than the retention. Tokens from
+     * before the newest one dropped are refused from then on by
+     * {@link #findChangesSince(long)}, and the collection version never goes
+     * back below it.
+     *
+     * @return the number of tombstones dropped
+     */
+    long purgeTombstones(Duration retention);
+
+    /**
+     * Returns the highest version written so far, deletions included. It grows
+     * with every write, so it works as a validator for the whole collection and
+     * is cheap enough to check on every list request.
+     */
+    long currentVersion();
+
+    /**
+     * Counts agents by region and status in a single grouped query. Always
+     * reads the primary, since it is used to check counters kept from writes.
+     */
+    AgentStats countByRegionAndStatus();
+
     Agent save(Agent agent);
 
-    Agent update(long id, Agent agent);
+    /**
+     * Inserts the agents in a single transaction, filling in ids and versions.
+     * Either every agent is saved or none is and the exception is thrown.
+     *
+     * @return the given list
+     */
+    List<Agent> saveAll(List<Agent> agents);
+
+    /**
+     * Overwrites the agent in a single round trip. When {@code expectedVersion}
+     * is not {@code null} the write only happens if the stored version still
+     * matches, otherwise a {@link StaleAgentException} is thrown. An agent
+     * whose status is {@link AgentStatus#SCONOSCIUTO} keeps the stored status.
+     *
+     * @return the updated agent together with the row it replaced, or empty if
+     * no agent has that id
+     */
+    Optional<AgentUpdate> update(long id, Agent agent, Long expectedVersion);
 
-    void delete(long id);
+    /**
+     * Deletes the agent in a single round trip, with the same version check as
+     * {@link #update(long, Agent, Long)}.
+     *
+     * @return the agent as it was before deletion but with the version of the
+     *         deletion itself, or empty if no agent has that id
+     */
+    Optional<Agent> delete(long id, Long expectedVersion);
 }
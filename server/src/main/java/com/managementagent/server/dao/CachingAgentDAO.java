@@ -0,0 +1,303 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStats;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.model.AgentUpdate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Decorator adding a bounded, read-through cache in front of another
+ * {@link AgentDAO}. Single-agent lookups are served from a concurrent map with a
+ * time-to-live; writes issued through this DAO replace the affected entry
+ * with the written row, or a tombstone after a delete, so it must wrap the
+ * only DAO instance the service talks to. Writing through rather than just
+ * dropping the entry keeps a read replica that has not caught up yet from
+ * loading the old row back in.
+ *
+ * <p>The cache is keyed by id alone, whichever database served the load. A
+ * row loaded from a read replica may already be behind the primary, so it is
+ * only kept for the replica TTL, the lag replicas are expected to stay within,
+ * and never replaces a newer version written through this DAO.</p>
+ *
+ * <p>Hits take no lock: they only mark the entry as referenced. Inserts,
+ * writes and evictions serialize on a small lock, and eviction approximates
+ * LRU with a clock hand sweeping the entries' slots, giving referenced
+ * entries a second chance.</p>
+ */
+public class CachingAgentDAO implements AgentDAO {
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final AgentDAO delegate;
+    private final long ttlNanos;
+    private final long replicaTtlNanos;
+    private final Map<Long, CacheEntry> entries = new ConcurrentHashMap<>();
+    // Write counters per stripe of ids, so a load only loses to writes that may have touched its agent.
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    // The id held by each slot, swept by the clock hand; guarded by itself, as are all changes to entries.
+    // Expired entries are left in place for the next store of their id or for the clock hand to reclaim.
+    private final long[] slots;
+    private int filledSlots;
+    private int hand;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param replicaTtl cap on the TTL of rows loaded from a read replica
+     */
+    public CachingAgentDAO(AgentDAO delegate, int maxSize, Duration ttl, Duration replicaTtl) {
+        this.delegate = delegate;
+        this.ttlNanos = ttl.toNanos();
+        this.replicaTtlNanos = Math.min(ttlNanos, replicaTtl.toNanos());
+        this.slots = new long[Math.max(1, maxSize)];
+    }
+
+    @Override
+    public List<Agent> findAll() {
+        return delegate.findAll();
+    }
+
+    @Override
+    public List<Agent> findPage(long afterId, int limit) {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public void streamAll(Consumer<Agent> consumer) {
+        delegate.streamAll(consumer);
+    }
+
+    @Override
+    public Optional<Agent> findById(long id) {
+        long now = System.nanoTime();
+        CacheEntry entry = entries.get(id);
+        if (entry != null && !entry.isExpired(now)) {
+            hits.increment();
+            entry.touch();
+            if (entry.agent == null) {
+                return Optional.empty();
+            }
+            // Callers mutate the agents they get back, so the cache never hands out its own instances.
+            return Optional.of(new Agent(entry.agent));
+        }
+        misses.increment();
+        // A write racing with this load must win: only cache if no write hit the agent's stripe meanwhile.
+        int stripe = stripe(id);
+        long generation = generations.get(stripe);
+        ReadRouting routing = ReadRouting.current();
+        long ttl = routing != null && !routing.isPrimary() ? replicaTtlNanos : ttlNanos;
+        Optional<Agent> loaded = delegate.findById(id);
+        loaded.ifPresent(agent -> {
+            CacheEntry loadedEntry = new CacheEntry(new Agent(agent), agent.getVersion(), now + ttl);
+            synchronized (slots) {
+                CacheEntry current = entries.get(id);
+                // A lagging replica may return a row older than one written through since the entry expired.
+                if (generations.get(stripe) == generation
+                        && (current == null || current.isExpired(now) || loadedEntry.supersedes(current))) {
+                    store(id, loadedEntry);
+                }
+            }
+        });
+        return loaded;
+    }
+
+    @Override
+    public List<Agent> findByRegion(String region) {
+        return delegate.findByRegion(region);
+    }
+
+    @Override
+    public List<Agent> findByStatus(AgentStatus status) {
+        return delegate.findByStatus(status);
+    }
+
+    @Override
+    public List<Agent> findByCode(String code) {
+        return delegate.findByCode(code);
+    }
+
+    @Override
+    public List<Agent> findByQuery(AgentQuery query) {
+        return delegate.findByQuery(query);
+    }
+
+    @Override
+    public AgentChanges findChangesSince(long token) {
+        return delegate.findChangesSince(token);
+    }
+
+    @Override
+    public long currentVersion() {
+        return delegate.currentVersion();
+    }
+
+    @Override
+    public long purgeTombstones(Duration retention) {
+        return delegate.purgeTombstones(retention);
+    }
+
+    @Override
+    public AgentStats countByRegionAndStatus() {
+        return delegate.countByRegionAndStatus();
+    }
+
+    @Override
+    public Agent save(Agent agent) {
+        return delegate.save(agent);
+    }
+
+    @Override
+    public List<Agent> saveAll(List<Agent> agents) {
+        return delegate.saveAll(agents);
+    }
+
+    @Override
+    public Optional<AgentUpdate> update(long id, Agent agent, Long expectedVersion) {
+        Optional<AgentUpdate> updated = Optional.empty();
+        try {
+            updated = delegate.update(id, agent, expectedVersion);
+            return updated;
+        } finally {
+            invalidate(id, updated.map(AgentUpdate::getAgent)
+                    .map(row -> new CacheEntry(new Agent(row), row.getVersion(), expiry())).orElse(null));
+        }
+    }
+
+    @Override
+    public Optional<Agent> delete(long id, Long expectedVersion) {
+        Optional<Agent> deleted = Optional.empty();
+        try {
+            deleted = delegate.delete(id, expectedVersion);
+            return deleted;
+        } finally {
+            invalidate(id, deleted.map(row -> new CacheEntry(null, row.getVersion(), expiry())).orElse(null));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private long expiry() {
+        return System.nanoTime() + ttlNanos;
+    }
+
+    /**
+     * Drops the entry, or replaces it with the outcome of a successful write.
+     * Two writes to the same agent may finish here out of order, so an entry
+     * never gives way to an older version.
+     */
+    private void invalidate(long id, CacheEntry replacement) {
+        synchronized (slots) {
+            generations.incrementAndGet(stripe(id));
+            CacheEntry current = entries.get(id);
+            if (replacement == null) {
+                entries.remove(id);
+            } else if (current == null || replacement.supersedes(current)) {
+                store(id, replacement);
+            }
+        }
+    }
+
+    /**
+     * Puts the entry in the slot of the one it replaces, or in a free or
+     * evicted slot. Called holding the slots lock.
+     */
+    private void store(long id, CacheEntry entry) {
+        CacheEntry current = entries.get(id);
+        entry.slot = current != null ? current.slot : claimSlot();
+        slots[entry.slot] = id;
+        entries.put(id, entry);
+    }
+
+    /**
+     * Fills the slots in order, then sweeps them with the clock hand: a slot
+     * whose entry is gone is free, an expired entry is reclaimed, a referenced
+     * entry loses its mark and is passed over, the first unreferenced one is
+     * evicted.
+     */
+    private int claimSlot() {
+        if (filledSlots < slots.length) {
+            return filledSlots++;
+        }
+        long now = System.nanoTime();
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % slots.length;
+            CacheEntry entry = entries.get(slots[slot]);
+            if (entry == null || entry.slot != slot) {
+                return slot;
+            }
+            if (entry.isExpired(now)) {
+                entries.remove(slots[slot]);
+                return slot;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else {
+                entries.remove(slots[slot]);
+                evictions.increment();
+                return slot;
+            }
+        }
+    }
+
+    private static int stripe(long id) {
+        return Long.hashCode(id) & (GENERATION_STRIPES - 1);
+    }
+
+    private static final class CacheEntry {
+        // null for a deleted agent
+        private final Agent agent;
+        private final long version;
+        private final long expiresAt;
+        // Guarded by the slots lock.
+        private int slot;
+        private volatile boolean referenced;
+
+        private CacheEntry(Agent agent, long version, long expiresAt) {
+            this.agent = agent;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+
+        private void touch() {
+            if (!referenced) {
+                referenced = true;
+            }
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        private boolean supersedes(CacheEntry other) {
+            // A delete reports the version of the deletion, above that of any write before it.
+            return version > other.version;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.managementagent.server.dao;
+
+import com.zaxxer.hikari.SQLExceptionOverride;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Keeps connections in the pool when a statement was cancelled by its
+ * {@link QueryDeadline} or query timeout. Hikari treats timeouts as a broken
+ * connection, but only the statement was aborted: evicting would turn every
+ * expired deadline into a reconnect.
+ */
+public class CancelledQueryExceptionOverride implements SQLExceptionOverride {
+
+    // SQL Server reports cancelled statements as HY008, H2 as 57014.
+    private static final Set<String> CANCELLED_STATES = Set.of("HY008", "57014");
+
+    @java.lang.Override
+    public Override adjudicate(SQLException e) {
+        return CANCELLED_STATES.contains(e.getSQLState()) ? Override.DO_NOT_EVICT : Override.CONTINUE_EVICT;
+    }
+}
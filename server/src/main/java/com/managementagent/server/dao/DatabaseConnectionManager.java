@@ -1,29 +1,72 @@
 package com.managementagent.server.dao;
 
 import com.managementagent.server.ServerSettings;
+import com.managementagent.server.metrics.LatencyHistogram;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Singleton responsible for providing the SQL Server {@link DataSource}.
  * Demonstrates the Singleton design pattern explicitly within the project.
+ * With {@code storage.mode=embedded} it points at an in-process H2 database instead.
+ * When read replicas are configured it also pools them behind a {@link ReplicaRouter}.
  */
 public final class DatabaseConnectionManager {
 
     private static final DatabaseConnectionManager INSTANCE = new DatabaseConnectionManager();
     private final HikariDataSource dataSource;
+    private final List<HikariDataSource> replicaDataSources = new ArrayList<>();
+    private final ReplicaRouter replicaRouter;
+    private final LatencyHistogram acquireTime = new LatencyHistogram();
+    private final LongAdder acquireTimeouts = new LongAdder();
 
     private DatabaseConnectionManager() {
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(ServerSettings.getDatabaseUrl());
-        config.setUsername(ServerSettings.getDatabaseUsername());
-        config.setPassword(ServerSettings.getDatabasePassword());
-        config.setDriverClassName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
-        config.setMaximumPoolSize(10);
-        config.setPoolName("ManagementAgentPool");
+        HikariConfig config = poolConfig(ServerSettings.isEmbeddedDatabase()
+                ? ServerSettings.getEmbeddedDatabaseUrl() : ServerSettings.getDatabaseUrl(), "ManagementAgentPool");
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                acquireTimeouts.increment();
+            }
+        });
         this.dataSource = new HikariDataSource(config);
+        List<String> replicaUrls = ServerSettings.getReplicaUrls();
+        for (int i = 0; i < replicaUrls.size(); i++) {
+            replicaDataSources.add(new HikariDataSource(poolConfig(replicaUrls.get(i), "ManagementAgentReplica" + i)));
+        }
+        this.replicaRouter = replicaDataSources.isEmpty() ? null
+                : new ReplicaRouter(dataSource, replicaDataSources, ServerSettings.getReplicaHealthCheckMillis());
+    }
+
+    private static HikariConfig poolConfig(String url, String poolName) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        if (ServerSettings.isEmbeddedDatabase()) {
+            config.setUsername("sa");
+            config.setPassword("");
+            // The shaded jar keeps only one META-INF/services/java.sql.Driver, so name the driver explicitly.
+            config.setDriverClassName("org.h2.Driver");
+        } else {
+            config.setUsername(ServerSettings.getDatabaseUsername());
+            config.setPassword(ServerSettings.getDatabasePassword());
+            config.setDriverClassName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
+        }
+        config.setMaximumPoolSize(ServerSettings.getDatabasePoolSize());
+        config.setPoolName(poolName);
+        config.setExceptionOverrideClassName(CancelledQueryExceptionOverride.class.getName());
+        return config;
     }
 
     public static DatabaseConnectionManager getInstance() {
@@ -33,4 +76,40 @@ public final class DatabaseConnectionManager {
     public DataSource getDataSource() {
         return dataSource;
     }
+
+    /**
+     * Where reads go: the replica router when replicas are configured, the primary otherwise.
+     */
+    public DataSource getReadDataSource() {
+        return replicaRouter != null ? replicaRouter : dataSource;
+    }
+
+    /**
+     * The replica router, or {@code null} without replicas.
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return replicaRouter;
+    }
+
+    /**
+     * Replica pools in configuration order, empty without replicas.
+     */
+    public List<DataSource> getReplicaDataSources() {
+        return List.copyOf(replicaDataSources);
+    }
+
+    /**
+     * Live pool figures: active, idle, total connections and threads waiting for one.
+     */
+    public HikariPoolMXBean getPoolStats() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    public LatencyHistogram getAcquireTime() {
+        return acquireTime;
+    }
+
+    public long getAcquireTimeoutCount() {
+        return acquireTimeouts.sum();
+    }
 }
@@ -0,0 +1,12 @@
+package com.managementagent.server.dao;
+
+/**
+ * Thrown when a request's {@link QueryDeadline} has already passed by the time
+ * its query would start, so the query is not sent at all.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException() {
+        super("Request deadline exceeded before the query started");
+    }
+}
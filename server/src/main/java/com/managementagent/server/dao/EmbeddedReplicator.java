@@ -0,0 +1,126 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for database replication in embedded mode: every interval it reads
+ * the primary's change feed and applies it to each embedded replica, which
+ * therefore lags behind by up to that interval. Ids and versions are copied
+ * as they are, so versions and ETags agree across databases.
+ */
+public final class EmbeddedReplicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmbeddedReplicator.class);
+
+    private final AgentDAO primary;
+    private final List<DataSource> replicas;
+    private final long[] tokens;
+    private final ScheduledExecutorService scheduler;
+
+    public EmbeddedReplicator(DataSource primary, List<DataSource> replicas, long intervalMillis) {
+        this.primary = new H2AgentDAO(primary, primary);
+        this.replicas = replicas;
+        this.tokens = new long[replicas.size()];
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedded-replicator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::replicate, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void replicate() {
+        for (int i = 0; i < replicas.size(); i++) {
+            try {
+                AgentChanges changes = primary.findChangesSince(tokens[i]);
+                if (changes.getNextToken() != tokens[i]) {
+                    apply(replicas.get(i), changes, false);
+                    tokens[i] = changes.getNextToken();
+                }
+            } catch (SyncTokenExpiredException e) {
+                // Lagged past the tombstone retention: copy the whole table again.
+                LOGGER.warn("Embedded replica {} fell behind the change feed, reloading it", i);
+                try {
+                    AgentChanges changes = primary.findChangesSince(0);
+                    apply(replicas.get(i), changes, true);
+                    tokens[i] = changes.getNextToken();
+                } catch (Exception reloadError) {
+                    LOGGER.warn("Unable to reload embedded replica {}", i, reloadError);
+                }
+            } catch (Exception e) {
+                // Retried from the same token on the next run.
+                LOGGER.warn("Unable to replicate changes to embedded replica {}", i, e);
+            }
+        }
+    }
+
+    /**
+     * @param reload whether the changes are a full copy replacing the replica's rows
+     */
+    private static void apply(DataSource replica, AgentChanges changes, boolean reload) throws Exception {
+        String deleteSql = "DELETE FROM agents WHERE id = ?";
+        // The feed only carries deleted ids, so their tombstones take the batch's final version.
+        String tombstoneSql = "INSERT INTO agent_tombstones (agent_id, row_version) VALUES (?, ?)";
+        String upsertSql = "MERGE INTO agents (id, code, name, region, status, last_update, row_version) "
+                + "KEY (id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try (Connection connection = replica.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                if (reload) {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.executeUpdate("DELETE FROM agents");
+                        statement.executeUpdate("DELETE FROM agent_tombstones");
+                    }
+                }
+                try (PreparedStatement delete = connection.prepareStatement(deleteSql);
+                     PreparedStatement tombstone = connection.prepareStatement(tombstoneSql)) {
+                    for (long id : changes.getDeletes()) {
+                        delete.setLong(1, id);
+                        delete.addBatch();
+                        tombstone.setLong(1, id);
+                        tombstone.setLong(2, changes.getNextToken());
+                        tombstone.addBatch();
+                    }
+                    delete.executeBatch();
+                    tombstone.executeBatch();
+                }
+                try (PreparedStatement upsert = connection.prepareStatement(upsertSql)) {
+                    for (Agent agent : changes.getUpserts()) {
+                        upsert.setLong(1, agent.getId());
+                        upsert.setString(2, agent.getCode());
+                        upsert.setString(3, agent.getName());
+                        upsert.setString(4, agent.getRegion());
+                        upsert.setString(5, SqlServerAgentDAO.statusCode(agent.getStatus()));
+                        upsert.setTimestamp(6, Timestamp.valueOf(agent.getLastUpdate()));
+                        upsert.setLong(7, agent.getVersion());
+                        upsert.addBatch();
+                    }
+                    upsert.executeBatch();
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,266 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentUpdate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * {@link SqlServerAgentDAO} variant for the embedded H2 database used by load
+ * tests (see {@code schema-h2.sql}). Reads are shared; only the statements
+ * relying on ROWVERSION and OUTPUT clauses are rewritten with H2's delta
+ * tables and a version sequence, keeping one round trip per write except
+ * for updates, which also read the row they replace.
+ */
+public class H2AgentDAO extends SqlServerAgentDAO {
+
+    // Per database: writes hold the shared side until they commit; see findChangesSince.
+    private static final Map<DataSource, ReadWriteLock> COMMIT_LOCKS = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock commitLock = COMMIT_LOCKS.computeIfAbsent(dataSource,
+            source -> new ReentrantReadWriteLock());
+
+    public H2AgentDAO() {
+    }
+
+    public H2AgentDAO(DataSource dataSource, DataSource readDataSource) {
+        super(dataSource, readDataSource);
+    }
+
+    @Override
+    public Agent save(Agent agent) {
+        return committing(() -> insert(agent));
+    }
+
+    private Agent insert(Agent agent) {
+        String sql = "SELECT id, row_version FROM FINAL TABLE ("
+                + "INSERT INTO agents (code, name, region, status, last_update) VALUES (?, ?, ?, ?, ?))";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql)) {
+            statement.setString(1, agent.getCode());
+            statement.setString(2, agent.getName());
+            statement.setString(3, agent.getRegion());
+            statement.setString(4, statusCode(agent.getStatus()));
+            statement.setTimestamp(5, Timestamp.valueOf(agent.getLastUpdate()));
+            try (ResultSet keys = statement.executeQuery()) {
+                if (keys.next()) {
+                    agent.setId(keys.getLong(1));
+                    agent.setVersion(keys.getLong(2));
+                }
+            }
+            return agent;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to save agent", e);
+        }
+    }
+
+    @Override
+    public List<Agent> saveAll(List<Agent> agents) {
+        return committing(() -> super.saveAll(agents));
+    }
+
+    @Override
+    String insertAllSql(int rows) {
+        return "SELECT id, row_version, code FROM FINAL TABLE ("
+                + "INSERT INTO agents (code, name, region, status, last_update) VALUES " + valueRows(rows) + ")";
+    }
+
+    @Override
+    public Optional<AgentUpdate> update(long id, Agent agent, Long expectedVersion) {
+        return committing(() -> replace(id, agent, expectedVersion));
+    }
+
+    private Optional<AgentUpdate> replace(long id, Agent agent, Long expectedVersion) {
+        // H2's delta tables show either the old or the new row, so the old one is read first under a row lock.
+        String previousSql = "SELECT " + COLUMNS + " FROM agents WHERE id = ? FOR UPDATE";
+        String sql = "SELECT " + COLUMNS + " FROM FINAL TABLE ("
+                + "UPDATE agents SET code = ?, name = ?, region = ?, status = ?, last_update = ?, "
+                + "row_version = NEXT VALUE FOR agent_row_versions WHERE id = ?)";
+        agent.setLastUpdate(LocalDateTime.now());
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                Agent previous = null;
+                try (PreparedStatement statement = prepare(connection, previousSql)) {
+                    statement.setLong(1, id);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next()) {
+                            previous = mapRow(resultSet);
+                        }
+                    }
+                }
+                if (previous == null) {
+                    connection.commit();
+                    return Optional.empty();
+                }
+                if (expectedVersion != null && previous.getVersion() != expectedVersion) {
+                    throw new StaleAgentException(id, expectedVersion);
+                }
+                Optional<AgentUpdate> updated = Optional.empty();
+                try (PreparedStatement statement = prepare(connection, sql)) {
+                    statement.setString(1, agent.getCode());
+                    statement.setString(2, agent.getName());
+                    statement.setString(3, agent.getRegion());
+                    statement.setString(4, statusCode(agent.getStatus()));
+                    statement.setTimestamp(5, Timestamp.valueOf(agent.getLastUpdate()));
+                    statement.setLong(6, id);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next()) {
+                            updated = Optional.of(new AgentUpdate(previous, mapRow(resultSet)));
+                        }
+                    }
+                }
+                connection.commit();
+                return updated;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (StaleAgentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to update agent with id " + id, e);
+        }
+    }
+
+    @Override
+    public Optional<Agent> delete(long id, Long expectedVersion) {
+        return committing(() -> remove(id, expectedVersion));
+    }
+
+    private Optional<Agent> remove(long id, Long expectedVersion) {
+        String deleteSql = "SELECT " + COLUMNS + " FROM OLD TABLE (DELETE FROM agents WHERE id = ?"
+                + (expectedVersion != null ? " AND row_version = ?" : "") + ")";
+        String tombstoneSql = "SELECT row_version FROM FINAL TABLE "
+                + "(INSERT INTO agent_tombstones (agent_id) VALUES (?))";
+        try (Connection connection = dataSource.getConnection()) {
+            // H2 cannot route deleted rows into another table, so both statements share a transaction.
+            connection.setAutoCommit(false);
+            try {
+                Optional<Agent> deleted = Optional.empty();
+                try (PreparedStatement statement = prepare(connection, deleteSql)) {
+                    statement.setLong(1, id);
+                    if (expectedVersion != null) {
+                        statement.setLong(2, expectedVersion);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next()) {
+                            deleted = Optional.of(mapRow(resultSet));
+                        }
+                    }
+                }
+                if (deleted.isPresent()) {
+                    try (PreparedStatement statement = prepare(connection, tombstoneSql)) {
+                        statement.setLong(1, id);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            resultSet.next();
+                            deleted.get().setVersion(resultSet.getLong(1));
+                        }
+                    }
+                }
+                connection.commit();
+                return deleted.isPresent() ? deleted : notFoundOrStale(connection, id, expectedVersion);
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (StaleAgentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to delete agent with id " + id, e);
+        }
+    }
+
+    /**
+     * H2 has no MIN_ACTIVE_ROWVERSION, and the highest committed version
+     * alone could pass over a lower one still being committed, which the
+     * feed would then never return. The upper bound is therefore read while
+     * no write is in flight: writes hold the commit lock's shared side from
+     * before they draw a version until they commit, and the bound is read
+     * under its exclusive side, so every version up to it is committed.
+     */
+    @Override
+    public AgentChanges findChangesSince(long token) {
+        String upsertSql = "SELECT " + COLUMNS + " FROM agents WHERE row_version > ? AND row_version <= ? ORDER BY id";
+        String deleteSql = "SELECT agent_id FROM agent_tombstones WHERE row_version > ? AND row_version <= ?";
+        // The connection is taken first: writers waiting for the lock hold none, so the pool cannot run dry.
+        try (Connection connection = dataSource.getConnection()) {
+            long upperBound;
+            commitLock.writeLock().lock();
+            try {
+                upperBound = currentVersion(connection);
+            } finally {
+                commitLock.writeLock().unlock();
+            }
+            if (upperBound <= token) {
+                checkNotPurged(connection, token);
+                return new AgentChanges(List.of(), List.of(), token);
+            }
+            List<Agent> upserts = new ArrayList<>();
+            try (PreparedStatement statement = prepare(connection, upsertSql)) {
+                statement.setLong(1, token);
+                statement.setLong(2, upperBound);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        upserts.add(mapRow(resultSet));
+                    }
+                }
+            }
+            List<Long> deletes = new ArrayList<>();
+            try (PreparedStatement statement = prepare(connection, deleteSql)) {
+                statement.setLong(1, token);
+                statement.setLong(2, upperBound);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        deletes.add(resultSet.getLong(1));
+                    }
+                }
+            }
+            checkNotPurged(connection, token);
+            return new AgentChanges(upserts, deletes, upperBound);
+        } catch (SyncTokenExpiredException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to retrieve agent changes since " + token, e);
+        }
+    }
+
+    @Override
+    public long purgeTombstones(Duration retention) {
+        return purgeTombstones(retention,
+                "SELECT MAX(row_version) FROM agent_tombstones WHERE deleted_at < DATEADD(SECOND, ?, LOCALTIMESTAMP)",
+                "DELETE FROM agent_tombstones WHERE row_version <= ? FETCH FIRST " + PURGE_BATCH_ROWS + " ROWS ONLY");
+    }
+
+    /**
+     * Runs a write holding the commit lock's shared side. It is taken before
+     * the connection, so a write never holds a connection while it waits.
+     */
+    private <T> T committing(Supplier<T> write) {
+        commitLock.readLock().lock();
+        try {
+            return write.get();
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+}
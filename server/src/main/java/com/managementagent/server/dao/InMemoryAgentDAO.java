@@ -0,0 +1,608 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentSortField;
+import com.managementagent.server.model.AgentStats;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.model.AgentUpdate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * {@link AgentDAO} keeping every agent in memory, with a primitive-keyed primary
+ * index and secondary indexes on region, status and code. Filtered lookups walk
+ * only the matching posting list.
+ *
+ * <p>Standalone it assigns its own ids and works as a database-free stand-in.
+ * Given a backing DAO it acts as a write-through front: it loads the backing
+ * table once, forwards every write to it and serves all reads from memory,
+ * the version, the change feed and the counts included.</p>
+ *
+ * <p>In front mode concurrent writes may finish in another order than the
+ * backing store versioned them. A finished write is held back until every
+ * write that started before it returned has finished too: only then is no
+ * lower version still missing, and the held writes are applied in version
+ * order. {@link #currentVersion()} therefore always describes exactly what
+ * the reads return.</p>
+ */
+public class InMemoryAgentDAO implements AgentDAO {
+
+    private static final int STREAM_CHUNK_SIZE = 1000;
+
+    private final AgentDAO backing;
+    private final AtomicLong sequence = new AtomicLong();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongObjectHashMap<Agent> agentsById = new LongObjectHashMap<>(1024);
+    private final Map<String, NavigableSet<Long>> idsByRegion = new HashMap<>();
+    private final Map<AgentStatus, NavigableSet<Long>> idsByStatus = new EnumMap<>(AgentStatus.class);
+    private final TreeMap<String, NavigableSet<Long>> idsByCode = new TreeMap<>();
+    private final NavigableMap<Long, Long> idsByVersion = new TreeMap<>();
+    private final NavigableMap<Long, Long> tombstonesByVersion = new TreeMap<>();
+    // Deletion time of each tombstone, in milliseconds, by the same versions.
+    private final NavigableMap<Long, Long> tombstoneTimes = new TreeMap<>();
+    // Front mode: tickets of the writes handed to the backing DAO and not finished yet.
+    private final NavigableSet<Long> writesInFlight = new TreeSet<>();
+    private long nextWriteTicket;
+    // Front mode: highest version each finished write reached, by the first ticket not started by then.
+    private final NavigableMap<Long, Long> finishedVersions = new TreeMap<>();
+    // Front mode: finished changes above the current version, by version.
+    private final NavigableMap<Long, Runnable> heldChanges = new TreeMap<>();
+    // Sorted ids, deleted ones included until the next compaction; those are skipped by lookup.
+    private long[] orderedIds = new long[1024];
+    private int idCount;
+    private int deletedIdCount;
+    private long currentVersion;
+    // Newest tombstone purged; older sync tokens are refused.
+    private long tombstoneFloor;
+    // Front mode: version of the initial load; older deletions are only known to the backing DAO.
+    private final long loadedVersion;
+
+    public InMemoryAgentDAO() {
+        this.backing = null;
+        this.loadedVersion = 0;
+    }
+
+    public InMemoryAgentDAO(AgentDAO backing) {
+        this.backing = backing;
+        // Tombstones count too, so the version comes from the backing DAO rather than from the rows.
+        long version = backing.currentVersion();
+        backing.streamAll(this::index);
+        currentVersion = Math.max(currentVersion, version);
+        this.loadedVersion = currentVersion;
+    }
+
+    @Override
+    public List<Agent> findAll() {
+        lock.readLock().lock();
+        try {
+            List<Agent> agents = new ArrayList<>(idCount - deletedIdCount);
+            for (int i = 0; i < idCount; i++) {
+                addCopy(agentsById.get(orderedIds[i]), agents);
+            }
+            return agents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Agent> findPage(long afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            int position = Arrays.binarySearch(orderedIds, 0, idCount, afterId);
+            int start = position >= 0 ? position + 1 : -position - 1;
+            List<Agent> agents = new ArrayList<>(Math.max(0, Math.min(idCount - start, limit)));
+            for (int i = start; i < idCount && agents.size() < limit; i++) {
+                addCopy(agentsById.get(orderedIds[i]), agents);
+            }
+            return agents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void streamAll(Consumer<Agent> consumer) {
+        // Copy out one chunk at a time so a slow consumer never holds the read lock.
+        long after = Long.MIN_VALUE;
+        List<Agent> chunk;
+        do {
+            chunk = findPage(after, STREAM_CHUNK_SIZE);
+            chunk.forEach(consumer);
+            if (!chunk.isEmpty()) {
+                after = chunk.get(chunk.size() - 1).getId();
+            }
+        } while (chunk.size() == STREAM_CHUNK_SIZE);
+    }
+
+    @Override
+    public Optional<Agent> findById(long id) {
+        lock.readLock().lock();
+        try {
+            Agent agent = agentsById.get(id);
+            return agent != null ? Optional.of(new Agent(agent)) : Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Agent> findByRegion(String region) {
+        return findIndexed(idsByRegion, region);
+    }
+
+    @Override
+    public List<Agent> findByStatus(AgentStatus status) {
+        return findIndexed(idsByStatus, status);
+    }
+
+    @Override
+    public List<Agent> findByCode(String code) {
+        return findIndexed(idsByCode, code);
+    }
+
+    @Override
+    public List<Agent> findByQuery(AgentQuery query) {
+        boolean idOrder = query.getSortField() == AgentSortField.ID && !query.isDescending();
+        int limit = query.getLimit() != null ? query.getLimit() : Integer.MAX_VALUE;
+        List<Agent> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            NavigableSet<Long> candidates = smallestCandidateSet(query);
+            if (candidates == null) {
+                int position = Arrays.binarySearch(orderedIds, 0, idCount, query.getAfterId());
+                int start = position >= 0 ? position + 1 : -position - 1;
+                for (int i = start; i < idCount && (!idOrder || matches.size() < limit); i++) {
+                    Agent agent = agentsById.get(orderedIds[i]);
+                    if (agent != null) {
+                        collectIfMatching(agent, query, matches);
+                    }
+                }
+            } else {
+                for (long id : candidates.tailSet(query.getAfterId(), false)) {
+                    if (idOrder && matches.size() >= limit) {
+                        break;
+                    }
+                    collectIfMatching(agentsById.get(id), query, matches);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!idOrder) {
+            Comparator<Agent> order = query.getSortField().getComparator()
+                    .thenComparing(AgentSortField.ID.getComparator());
+            matches.sort(query.isDescending() ? order.reversed() : order);
+        }
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    @Override
+    public AgentChanges findChangesSince(long token) {
+        if (backing != null && token < loadedVersion) {
+            return backing.findChangesSince(token);
+        }
+        lock.readLock().lock();
+        try {
+            List<Agent> upserts = new ArrayList<>();
+            for (long id : idsByVersion.tailMap(token, false).values()) {
+                upserts.add(new Agent(agentsById.get(id)));
+            }
+            if (token != 0 && token < tombstoneFloor) {
+                throw new SyncTokenExpiredException(token, tombstoneFloor);
+            }
+            List<Long> deletes = new ArrayList<>(tombstonesByVersion.tailMap(token, false).values());
+            return new AgentChanges(upserts, deletes, Math.max(token, currentVersion));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long purgeTombstones(Duration retention) {
+        long purgedBehind = backing != null ? backing.purgeTombstones(retention) : 0;
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        lock.writeLock().lock();
+        try {
+            long purged = 0;
+            Map.Entry<Long, Long> oldest;
+            while ((oldest = tombstoneTimes.firstEntry()) != null && oldest.getValue() < cutoff) {
+                tombstoneTimes.pollFirstEntry();
+                tombstonesByVersion.remove(oldest.getKey());
+                tombstoneFloor = oldest.getKey();
+                purged++;
+            }
+            return backing != null ? purgedBehind : purged;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long currentVersion() {
+        lock.readLock().lock();
+        try {
+            return currentVersion;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counted from the region index. Agents without a region or status, only
+     * possible without a database, are left out.
+     */
+    @Override
+    public AgentStats countByRegionAndStatus() {
+        Map<String, Map<AgentStatus, Long>> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<String, NavigableSet<Long>> region : idsByRegion.entrySet()) {
+                Map<AgentStatus, Long> byStatus = new EnumMap<>(AgentStatus.class);
+                for (long id : region.getValue()) {
+                    AgentStatus status = agentsById.get(id).getStatus();
+                    if (status != null) {
+                        byStatus.merge(status, 1L, Long::sum);
+                    }
+                }
+                counts.put(region.getKey(), byStatus);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new AgentStats(counts);
+    }
+
+    @Override
+    public Agent save(Agent agent) {
+        if (backing != null) {
+            long ticket = beginWrite();
+            Map<Long, Runnable> changes = new HashMap<>();
+            try {
+                backing.save(agent);
+                changes.put(agent.getVersion(), indexing(agent));
+                return agent;
+            } finally {
+                finishWrite(ticket, changes);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            agent.setId(sequence.incrementAndGet());
+            agent.setVersion(++currentVersion);
+            indexLocked(agent);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return agent;
+    }
+
+    @Override
+    public List<Agent> saveAll(List<Agent> agents) {
+        if (backing != null) {
+            long ticket = beginWrite();
+            Map<Long, Runnable> changes = new HashMap<>();
+            try {
+                backing.saveAll(agents);
+                agents.forEach(agent -> changes.put(agent.getVersion(), indexing(agent)));
+                return agents;
+            } finally {
+                finishWrite(ticket, changes);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (Agent agent : agents) {
+                agent.setId(sequence.incrementAndGet());
+                agent.setVersion(++currentVersion);
+                indexLocked(agent);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return agents;
+    }
+
+    @Override
+    public Optional<AgentUpdate> update(long id, Agent agent, Long expectedVersion) {
+        if (backing != null) {
+            long ticket = beginWrite();
+            Map<Long, Runnable> changes = new HashMap<>();
+            try {
+                Optional<AgentUpdate> updated = backing.update(id, agent, expectedVersion);
+                updated.map(AgentUpdate::getAgent).ifPresent(row -> changes.put(row.getVersion(), indexing(row)));
+                return updated;
+            } finally {
+                finishWrite(ticket, changes);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (!checkVersion(id, expectedVersion)) {
+                return Optional.empty();
+            }
+            // Stored agents are replaced, never modified, so the old one can be handed out as it is.
+            Agent previous = agentsById.get(id);
+            if (agent.getStatus() == AgentStatus.SCONOSCIUTO) {
+                agent.setStatus(previous.getStatus());
+            }
+            agent.setId(id);
+            agent.setLastUpdate(LocalDateTime.now());
+            agent.setVersion(++currentVersion);
+            indexLocked(agent);
+            return Optional.of(new AgentUpdate(previous, agent));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<Agent> delete(long id, Long expectedVersion) {
+        if (backing != null) {
+            long ticket = beginWrite();
+            Map<Long, Runnable> changes = new HashMap<>();
+            try {
+                Optional<Agent> deleted = backing.delete(id, expectedVersion);
+                deleted.ifPresent(row -> changes.put(row.getVersion(), () -> deleteLocked(id, row.getVersion())));
+                return deleted;
+            } finally {
+                finishWrite(ticket, changes);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (!checkVersion(id, expectedVersion)) {
+                return Optional.empty();
+            }
+            Agent removed = agentsById.get(id);
+            deleteLocked(id, currentVersion + 1);
+            removed.setVersion(currentVersion);
+            return Optional.of(removed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether the agent exists, throwing if it exists with a version
+     * other than the expected one. Must be called under the write lock.
+     */
+    private boolean checkVersion(long id, Long expectedVersion) {
+        Agent current = agentsById.get(id);
+        if (current == null) {
+            return false;
+        }
+        if (expectedVersion != null && current.getVersion() != expectedVersion) {
+            throw new StaleAgentException(id, expectedVersion);
+        }
+        return true;
+    }
+
+    /**
+     * Registers a front-mode write, before it reaches the backing DAO.
+     */
+    private long beginWrite() {
+        lock.writeLock().lock();
+        try {
+            long ticket = nextWriteTicket++;
+            writesInFlight.add(ticket);
+            return ticket;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Holds a front-mode write's changes, by version, then applies every held
+     * change no write still in flight can come in under. A write that starts
+     * after this one has returned is versioned above it by the backing store,
+     * so this write's versions are safe once all tickets issued so far are done.
+     */
+    private void finishWrite(long ticket, Map<Long, Runnable> changes) {
+        lock.writeLock().lock();
+        try {
+            writesInFlight.remove(ticket);
+            if (!changes.isEmpty()) {
+                heldChanges.putAll(changes);
+                finishedVersions.merge(nextWriteTicket, Collections.max(changes.keySet()), Math::max);
+            }
+            long oldestInFlight = writesInFlight.isEmpty() ? Long.MAX_VALUE : writesInFlight.first();
+            NavigableMap<Long, Long> safe = finishedVersions.headMap(oldestInFlight, true);
+            long visible = safe.values().stream().mapToLong(Long::longValue).max().orElse(currentVersion);
+            safe.clear();
+            NavigableMap<Long, Runnable> ready = heldChanges.headMap(visible, true);
+            ready.values().forEach(Runnable::run);
+            ready.clear();
+            currentVersion = Math.max(currentVersion, visible);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Runnable indexing(Agent agent) {
+        Agent row = new Agent(agent);
+        return () -> indexLocked(row);
+    }
+
+    private void deleteLocked(long id, long version) {
+        removeLocked(id);
+        currentVersion = Math.max(currentVersion, version);
+        tombstonesByVersion.put(version, id);
+        tombstoneTimes.put(version, System.currentTimeMillis());
+    }
+
+    private Agent removeLocked(long id) {
+        Agent removed = agentsById.remove(id);
+        if (removed != null) {
+            unindex(removed);
+            removeOrderedId(id);
+        }
+        return removed;
+    }
+
+    private <K> List<Agent> findIndexed(Map<K, NavigableSet<Long>> index, K key) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<Long> ids = index.getOrDefault(key, Collections.emptyNavigableSet());
+            List<Agent> agents = new ArrayList<>(ids.size());
+            for (long id : ids) {
+                agents.add(new Agent(agentsById.get(id)));
+            }
+            return agents;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Picks the narrowest index posting list for the query, or {@code null} when
+     * no indexed filter is set and the whole table has to be walked.
+     */
+    private NavigableSet<Long> smallestCandidateSet(AgentQuery query) {
+        NavigableSet<Long> smallest = null;
+        if (query.getRegion() != null) {
+            smallest = idsByRegion.getOrDefault(query.getRegion(), Collections.emptyNavigableSet());
+        }
+        if (query.getStatus() != null) {
+            NavigableSet<Long> byStatus = idsByStatus.getOrDefault(query.getStatus(), Collections.emptyNavigableSet());
+            if (smallest == null || byStatus.size() < smallest.size()) {
+                smallest = byStatus;
+            }
+        }
+        if (query.getCodePrefix() != null && (smallest == null || smallest.size() > 1)) {
+            String prefix = query.getCodePrefix();
+            NavigableSet<Long> byCode = new TreeSet<>();
+            for (NavigableSet<Long> ids : idsByCode.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+                byCode.addAll(ids);
+                if (smallest != null && byCode.size() >= smallest.size()) {
+                    return smallest;
+                }
+            }
+            smallest = byCode;
+        }
+        return smallest;
+    }
+
+    private static void collectIfMatching(Agent agent, AgentQuery query, List<Agent> matches) {
+        if ((query.getRegion() == null || Objects.equals(query.getRegion(), agent.getRegion()))
+                && (query.getStatus() == null || Objects.equals(query.getStatus(), agent.getStatus()))
+                && (query.getCodePrefix() == null
+                || (agent.getCode() != null && agent.getCode().startsWith(query.getCodePrefix())))) {
+            matches.add(new Agent(agent));
+        }
+    }
+
+    private void index(Agent agent) {
+        lock.writeLock().lock();
+        try {
+            indexLocked(agent);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void addCopy(Agent agent, List<Agent> agents) {
+        if (agent != null) {
+            agents.add(new Agent(agent));
+        }
+    }
+
+    private void indexLocked(Agent agent) {
+        Agent current = agentsById.get(agent.getId());
+        if (current != null && current.getVersion() >= agent.getVersion()) {
+            return;
+        }
+        Agent stored = new Agent(agent);
+        Agent previous = agentsById.put(stored.getId(), stored);
+        if (previous != null) {
+            unindex(previous);
+        } else {
+            insertOrderedId(stored.getId());
+        }
+        sequence.accumulateAndGet(stored.getId(), Math::max);
+        currentVersion = Math.max(currentVersion, stored.getVersion());
+        idsByVersion.put(stored.getVersion(), stored.getId());
+        add(idsByRegion, stored.getRegion(), stored.getId());
+        add(idsByStatus, stored.getStatus(), stored.getId());
+        add(idsByCode, stored.getCode(), stored.getId());
+    }
+
+    private void unindex(Agent agent) {
+        idsByVersion.remove(agent.getVersion());
+        remove(idsByRegion, agent.getRegion(), agent.getId());
+        remove(idsByStatus, agent.getStatus(), agent.getId());
+        remove(idsByCode, agent.getCode(), agent.getId());
+    }
+
+    private static <K> void add(Map<K, NavigableSet<Long>> index, K key, long id) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+        }
+    }
+
+    private static <K> void remove(Map<K, NavigableSet<Long>> index, K key, long id) {
+        if (key == null) {
+            return;
+        }
+        NavigableSet<Long> ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private void insertOrderedId(long id) {
+        int position = Arrays.binarySearch(orderedIds, 0, idCount, id);
+        if (position >= 0) {
+            // Still there from before a delete: live again.
+            deletedIdCount--;
+            return;
+        }
+        int insertAt = -position - 1;
+        if (idCount == orderedIds.length) {
+            orderedIds = Arrays.copyOf(orderedIds, orderedIds.length * 2);
+        }
+        System.arraycopy(orderedIds, insertAt, orderedIds, insertAt + 1, idCount - insertAt);
+        orderedIds[insertAt] = id;
+        idCount++;
+    }
+
+    /**
+     * Leaves the id in place and compacts the array once half of it is
+     * deleted, so a delete costs amortized constant time rather than a copy
+     * of the array. The agent must already be gone from {@code agentsById}.
+     */
+    private void removeOrderedId(long id) {
+        if (++deletedIdCount <= idCount / 2) {
+            return;
+        }
+        int live = 0;
+        for (int i = 0; i < idCount; i++) {
+            if (agentsById.get(orderedIds[i]) != null) {
+                orderedIds[live++] = orderedIds[i];
+            }
+        }
+        idCount = live;
+        deletedIdCount = 0;
+    }
+}
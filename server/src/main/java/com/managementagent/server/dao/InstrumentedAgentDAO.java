@@ -0,0 +1,218 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.metrics.LatencyHistogram;
+import com.managementagent.server.metrics.MetricsRegistry;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStats;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.model.AgentUpdate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Decorator timing every {@link AgentDAO} call into a per-method latency
+ * histogram, failed calls included.
+ */
+public class InstrumentedAgentDAO implements AgentDAO {
+
+    private static final String METRIC = "agent_dao_call_seconds";
+    private static final String HELP = "Time spent in AgentDAO calls.";
+
+    private final AgentDAO delegate;
+    private final LatencyHistogram findAll;
+    private final LatencyHistogram findPage;
+    private final LatencyHistogram streamAll;
+    private final LatencyHistogram findById;
+    private final LatencyHistogram findByRegion;
+    private final LatencyHistogram findByStatus;
+    private final LatencyHistogram findByCode;
+    private final LatencyHistogram findByQuery;
+    private final LatencyHistogram findChangesSince;
+    private final LatencyHistogram currentVersion;
+    private final LatencyHistogram countByRegionAndStatus;
+    private final LatencyHistogram save;
+    private final LatencyHistogram saveAll;
+    private final LatencyHistogram update;
+    private final LatencyHistogram delete;
+
+    public InstrumentedAgentDAO(AgentDAO delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.findAll = registry.histogram(METRIC, HELP, "method", "findAll");
+        this.findPage = registry.histogram(METRIC, HELP, "method", "findPage");
+        this.streamAll = registry.histogram(METRIC, HELP, "method", "streamAll");
+        this.findById = registry.histogram(METRIC, HELP, "method", "findById");
+        this.findByRegion = registry.histogram(METRIC, HELP, "method", "findByRegion");
+        this.findByStatus = registry.histogram(METRIC, HELP, "method", "findByStatus");
+        this.findByCode = registry.histogram(METRIC, HELP, "method", "findByCode");
+        this.findByQuery = registry.histogram(METRIC, HELP, "method", "findByQuery");
+        this.findChangesSince = registry.histogram(METRIC, HELP, "method", "findChangesSince");
+        this.currentVersion = registry.histogram(METRIC, HELP, "method", "currentVersion");
+        this.countByRegionAndStatus = registry.histogram(METRIC, HELP, "method", "countByRegionAndStatus");
+        this.save = registry.histogram(METRIC, HELP, "method", "save");
+        this.saveAll = registry.histogram(METRIC, HELP, "method", "saveAll");
+        this.update = registry.histogram(METRIC, HELP, "method", "update");
+        this.delete = registry.histogram(METRIC, HELP, "method", "delete");
+    }
+
+    @Override
+    public List<Agent> findAll() {
+        long start = System.nanoTime();
+        try {
+            return delegate.findAll();
+        } finally {
+            findAll.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Agent> findPage(long afterId, int limit) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findPage(afterId, limit);
+        } finally {
+            findPage.recordSince(start);
+        }
+    }
+
+    @Override
+    public void streamAll(Consumer<Agent> consumer) {
+        // Includes the time the consumer spends writing to the client.
+        long start = System.nanoTime();
+        try {
+            delegate.streamAll(consumer);
+        } finally {
+            streamAll.recordSince(start);
+        }
+    }
+
+    @Override
+    public Optional<Agent> findById(long id) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findById(id);
+        } finally {
+            findById.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Agent> findByRegion(String region) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findByRegion(region);
+        } finally {
+            findByRegion.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Agent> findByStatus(AgentStatus status) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findByStatus(status);
+        } finally {
+            findByStatus.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Agent> findByCode(String code) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findByCode(code);
+        } finally {
+            findByCode.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Agent> findByQuery(AgentQuery query) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findByQuery(query);
+        } finally {
+            findByQuery.recordSince(start);
+        }
+    }
+
+    @Override
+    public AgentChanges findChangesSince(long token) {
+        long start = System.nanoTime();
+        try {
+            return delegate.findChangesSince(token);
+        } finally {
+            findChangesSince.recordSince(start);
+        }
+    }
+
+    @Override
+    public long purgeTombstones(Duration retention) {
+        // A background job, kept out of the request latency histograms.
+        return delegate.purgeTombstones(retention);
+    }
+
+    @Override
+    public long currentVersion() {
+        long start = System.nanoTime();
+        try {
+            return delegate.currentVersion();
+        } finally {
+            currentVersion.recordSince(start);
+        }
+    }
+
+    @Override
+    public AgentStats countByRegionAndStatus() {
+        long start = System.nanoTime();
+        try {
+            return delegate.countByRegionAndStatus();
+        } finally {
+            countByRegionAndStatus.recordSince(start);
+        }
+    }
+
+    @Override
+    public Agent save(Agent agent) {
+        long start = System.nanoTime();
+        try {
+            return delegate.save(agent);
+        } finally {
+            save.recordSince(start);
+        }
+    }
+
+    @Override
+    public List<Agent> saveAll(List<Agent> agents) {
+        long start = System.nanoTime();
+        try {
+            return delegate.saveAll(agents);
+        } finally {
+            saveAll.recordSince(start);
+        }
+    }
+
+    @Override
+    public Optional<AgentUpdate> update(long id, Agent agent, Long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            return delegate.update(id, agent, expectedVersion);
+        } finally {
+            update.recordSince(start);
+        }
+    }
+
+    @Override
+    public Optional<Agent> delete(long id, Long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            return delegate.delete(id, expectedVersion);
+        } finally {
+            delete.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.managementagent.server.dao;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Point in time by which a request must be answered. It travels with the
+ * thread doing the work: {@link #call(Supplier)} makes it current, the service
+ * captures the current deadline when a call is submitted and reinstalls it on
+ * the executor thread, and the JDBC DAOs turn it into a query timeout on every
+ * statement they prepare.
+ *
+ * <p>When the deadline passes, {@link #enforce(CompletableFuture)} fails the
+ * caller's future and cancels the statement still running, which releases
+ * the executor thread and the pooled connection instead of letting them wait
+ * on a database nobody is waiting for any more.</p>
+ */
+public final class QueryDeadline {
+
+    private static final ThreadLocal<QueryDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+    private final boolean bounded;
+    private volatile Statement running;
+    private volatile boolean cancelled;
+
+    private QueryDeadline(long expiresAtNanos, boolean bounded) {
+        this.expiresAtNanos = expiresAtNanos;
+        this.bounded = bounded;
+    }
+
+    public static QueryDeadline after(long millis) {
+        return new QueryDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis), true);
+    }
+
+    /**
+     * A deadline that never passes by itself, for work shared by callers
+     * with deadlines of their own: only {@link #cancel()} stops it.
+     */
+    public static QueryDeadline untilCancelled() {
+        return new QueryDeadline(0, false);
+    }
+
+    /**
+     * The deadline installed on this thread, or {@code null} when the work is unbounded.
+     */
+    public static QueryDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the action with this deadline installed on the calling thread.
+     */
+    public <T> T call(Supplier<T> action) {
+        QueryDeadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    public long remainingNanos() {
+        return bounded ? expiresAtNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return cancelled || remainingNanos() <= 0;
+    }
+
+    /**
+     * Fails the future with a {@link TimeoutException} once the deadline
+     * passes and cancels the statement the work is running at that moment.
+     * Only for futures whose work belongs to this deadline alone.
+     */
+    public <T> CompletableFuture<T> enforce(CompletableFuture<T> future) {
+        if (!bounded) {
+            return future;
+        }
+        return future.orTimeout(remainingNanos(), TimeUnit.NANOSECONDS).whenComplete((result, error) -> {
+            if (error instanceof TimeoutException) {
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * Bounds how long the caller waits on a future shared with other
+     * callers, without cancelling the shared work.
+     */
+    public <T> CompletableFuture<T> bound(CompletableFuture<T> future) {
+        return future.copy().orTimeout(remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public void cancel() {
+        cancelled = true;
+        Statement statement = running;
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // Already closed or finished: nothing left to cancel.
+            }
+        }
+    }
+
+    /**
+     * Applies the current thread's deadline, if any, to a freshly prepared
+     * statement and remembers it for cancellation.
+     *
+     * @throws DeadlineExceededException if no time is left to run it
+     */
+    static void apply(Statement statement) throws SQLException {
+        QueryDeadline deadline = CURRENT.get();
+        if (deadline == null) {
+            return;
+        }
+        long remaining = deadline.remainingNanos();
+        if (deadline.cancelled || remaining <= 0) {
+            throw new DeadlineExceededException();
+        }
+        if (deadline.bounded) {
+            // The driver timeout has one-second granularity; cancel() enforces the exact deadline.
+            statement.setQueryTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + 999_999_999)));
+        }
+        deadline.running = statement;
+        if (deadline.cancelled) {
+            statement.cancel();
+        }
+    }
+}
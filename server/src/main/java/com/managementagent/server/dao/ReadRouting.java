@@ -0,0 +1,67 @@
+package com.managementagent.server.dao;
+
+import java.util.function.Supplier;
+
+/**
+ * Where the reads of one request go: a given replica, or the primary when the
+ * client must see its own recent writes. It is chosen once per request by
+ * {@link ReplicaRouter#route(boolean)} and travels with the work like a
+ * {@link QueryDeadline}, so a collection version and the list read after it
+ * come from the same database.
+ */
+public final class ReadRouting {
+
+    public static final ReadRouting PRIMARY = new ReadRouting(-1);
+
+    private static final ThreadLocal<ReadRouting> CURRENT = new ThreadLocal<>();
+
+    private final int replica;
+
+    ReadRouting(int replica) {
+        this.replica = replica;
+    }
+
+    /**
+     * The routing installed on this thread, or {@code null} outside a request.
+     */
+    public static ReadRouting current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Runs the action with this routing installed on the calling thread.
+     */
+    public <T> T call(Supplier<T> action) {
+        ReadRouting previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    boolean isPrimary() {
+        return replica < 0;
+    }
+
+    int getReplica() {
+        return replica;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return replica == ((ReadRouting) o).replica;
+    }
+
+    @Override
+    public int hashCode() {
+        return Integer.hashCode(replica);
+    }
+}
@@ -0,0 +1,198 @@
+package com.managementagent.server.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link DataSource} for reads, spreading requests over read replicas. Each
+ * request is given a {@link ReadRouting} by {@link #route(boolean)}, round
+ * robin over the healthy replicas; connections are then borrowed from that
+ * replica. Reads with no routing, routed to the primary, or whose replica is
+ * down use the primary.
+ *
+ * <p>A replica that fails to hand out a connection is marked down at once; a
+ * background check validates every replica periodically and brings it back
+ * once it answers again.</p>
+ */
+public final class ReplicaRouter implements DataSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaRouter.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final ScheduledExecutorService healthCheck;
+
+    public ReplicaRouter(DataSource primary, List<? extends DataSource> replicaDataSources, long healthCheckMillis) {
+        this.primary = primary;
+        for (int i = 0; i < replicaDataSources.size(); i++) {
+            replicas.add(new Replica(replicaDataSources.get(i), new ReadRouting(i)));
+        }
+        this.healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthCheck.scheduleWithFixedDelay(this::checkReplicas, healthCheckMillis, healthCheckMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Picks where the reads of a new request go.
+     *
+     * @param primaryRequired whether the client must see its own recent writes
+     */
+    public ReadRouting route(boolean primaryRequired) {
+        if (!primaryRequired) {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (replica.healthy) {
+                    return replica.routing;
+                }
+            }
+        }
+        return ReadRouting.PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        ReadRouting routing = ReadRouting.current();
+        if (routing != null && !routing.isPrimary()) {
+            Replica replica = replicas.get(routing.getReplica());
+            if (replica.healthy) {
+                try {
+                    Connection connection = replica.dataSource.getConnection();
+                    replicaReads.increment();
+                    return connection;
+                } catch (SQLException e) {
+                    failovers.increment();
+                    replica.setHealthy(false, e);
+                }
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return primary.getConnection(username, password);
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                replica.setHealthy(connection.isValid(VALIDATION_TIMEOUT_SECONDS), null);
+            } catch (SQLException | RuntimeException e) {
+                replica.setHealthy(false, e);
+            }
+        }
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    public boolean isHealthy(int replica) {
+        return replicas.get(replica).healthy;
+    }
+
+    public int getHealthyReplicaCount() {
+        return (int) replicas.stream().filter(replica -> replica.healthy).count();
+    }
+
+    public long getPrimaryReadCount() {
+        return primaryReads.sum();
+    }
+
+    public long getReplicaReadCount() {
+        return replicaReads.sum();
+    }
+
+    /**
+     * Reads sent to the primary because their replica could not hand out a connection.
+     */
+    public long getFailoverCount() {
+        return failovers.sum();
+    }
+
+    public void shutdown() {
+        healthCheck.shutdownNow();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    private static final class Replica {
+        private final DataSource dataSource;
+        private final ReadRouting routing;
+        private volatile boolean healthy = true;
+
+        private Replica(DataSource dataSource, ReadRouting routing) {
+            this.dataSource = dataSource;
+            this.routing = routing;
+        }
+
+        private void setHealthy(boolean healthy, Exception cause) {
+            if (this.healthy == healthy) {
+                return;
+            }
+            this.healthy = healthy;
+            if (healthy) {
+                LOGGER.info("Replica {} is back, routing reads to it again", routing.getReplica());
+            } else {
+                LOGGER.warn("Replica {} is unavailable, its reads go to the primary", routing.getReplica(), cause);
+            }
+        }
+    }
+}
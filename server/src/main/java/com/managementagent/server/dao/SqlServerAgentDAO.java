@@ -1,35 +1,74 @@
 package com.managementagent.server.dao;
 
 import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentQuery;
+import com.managementagent.server.model.AgentStats;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.model.AgentUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
- * Concrete DAO implementation backed by SQL Server.
+ * Concrete DAO implementation backed by SQL Server. Lookups and listings use
+ * the read data source, which may route them to a replica; writes, the
+ * change feed and the grouped counts always go to the primary.
  */
 public class SqlServerAgentDAO implements AgentDAO {
 
-    private final DataSource dataSource;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlServerAgentDAO.class);
+    static final String COLUMNS =
+            "id, code, name, region, status, last_update, CAST(row_version AS BIGINT) AS version";
+    // The row an update replaces, next to the inserted columns; see mapPreviousRow.
+    private static final String PREVIOUS_COLUMNS = "deleted.code AS previous_code, deleted.name AS previous_name, "
+            + "deleted.region AS previous_region, deleted.status AS previous_status, "
+            + "deleted.last_update AS previous_last_update, CAST(deleted.row_version AS BIGINT) AS previous_version";
+    private static final int STREAM_FETCH_SIZE = 10_000;
+    // SQL Server accepts at most 2100 parameters per statement, five per inserted row.
+    private static final int MAX_INSERT_ROWS = 400;
+    // Tombstones deleted per statement by a purge, so it never holds many locks at once.
+    static final int PURGE_BATCH_ROWS = 10_000;
+    private static final AgentStatus[] STATUSES = AgentStatus.values();
+    // Stored statuses already reported as unknown, so each is logged once.
+    private static final Set<String> UNKNOWN_STATUSES = ConcurrentHashMap.newKeySet();
+
+    final DataSource dataSource;
+    final DataSource readDataSource;
 
     public SqlServerAgentDAO() {
-        this.dataSource = DatabaseConnectionManager.getInstance().getDataSource();
+        this(DatabaseConnectionManager.getInstance().getDataSource(),
+                DatabaseConnectionManager.getInstance().getReadDataSource());
+    }
+
+    public SqlServerAgentDAO(DataSource dataSource, DataSource readDataSource) {
+        this.dataSource = dataSource;
+        this.readDataSource = readDataSource;
     }
 
     @Override
     public List<Agent> findAll() {
-        String sql = "SELECT id, code, name, region, status, last_update FROM agents ORDER BY id";
+        String sql = "SELECT " + COLUMNS + " FROM agents ORDER BY id";
         List<Agent> agents = new ArrayList<>();
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql);
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql);
              ResultSet resultSet = statement.executeQuery()) {
             while (resultSet.next()) {
                 agents.add(mapRow(resultSet));
@@ -40,11 +79,47 @@ public class SqlServerAgentDAO implements AgentDAO {
         return agents;
     }
 
+    @Override
+    public List<Agent> findPage(long afterId, int limit) {
+        String sql = "SELECT TOP (?) " + COLUMNS + " FROM agents WHERE id > ? ORDER BY id";
+        List<Agent> agents = new ArrayList<>(limit);
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql)) {
+            statement.setInt(1, limit);
+            statement.setLong(2, afterId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    agents.add(mapRow(resultSet));
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to retrieve agents after id " + afterId, e);
+        }
+        return agents;
+    }
+
+    @Override
+    public void streamAll(Consumer<Agent> consumer) {
+        String sql = "SELECT " + COLUMNS + " FROM agents ORDER BY id";
+        // Forward-only and read-only, as prepare() leaves them; a passing deadline cancels the statement.
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql)) {
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    consumer.accept(mapRow(resultSet));
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to stream agents", e);
+        }
+    }
+
     @Override
     public Optional<Agent> findById(long id) {
-        String sql = "SELECT id, code, name, region, status, last_update FROM agents WHERE id = ?";
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        String sql = "SELECT " + COLUMNS + " FROM agents WHERE id = ?";
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql)) {
             statement.setLong(1, id);
             try (ResultSet resultSet = statement.executeQuery()) {
                 if (resultSet.next()) {
@@ -57,20 +132,81 @@ public class SqlServerAgentDAO implements AgentDAO {
         return Optional.empty();
     }
 
+    @Override
+    public List<Agent> findByRegion(String region) {
+        return findByColumn("region", region);
+    }
+
+    @Override
+    public List<Agent> findByStatus(AgentStatus status) {
+        return findByColumn("status", statusCode(status));
+    }
+
+    @Override
+    public List<Agent> findByCode(String code) {
+        return findByColumn("code", code);
+    }
+
+    @Override
+    public List<Agent> findByQuery(AgentQuery query) {
+        StringBuilder sql = new StringBuilder("SELECT ");
+        List<Object> parameters = new ArrayList<>();
+        if (query.getLimit() != null) {
+            sql.append("TOP (?) ");
+            parameters.add(query.getLimit());
+        }
+        sql.append(COLUMNS).append(" FROM agents WHERE id > ?");
+        parameters.add(query.getAfterId());
+        if (query.getRegion() != null) {
+            sql.append(" AND region = ?");
+            parameters.add(query.getRegion());
+        }
+        if (query.getStatus() != null) {
+            sql.append(" AND status = ?");
+            parameters.add(query.getStatus().name());
+        }
+        if (query.getCodePrefix() != null) {
+            sql.append(" AND code LIKE ? ESCAPE '\\'");
+            parameters.add(escapeLike(query.getCodePrefix()) + "%");
+        }
+        String direction = query.isDescending() ? " DESC" : " ASC";
+        sql.append(" ORDER BY ").append(query.getSortField().getColumn()).append(direction);
+        if (!"id".equals(query.getSortField().getColumn())) {
+            sql.append(", id").append(direction);
+        }
+
+        List<Agent> agents = new ArrayList<>();
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql.toString())) {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    agents.add(mapRow(resultSet));
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to query agents", e);
+        }
+        return agents;
+    }
+
     @Override
     public Agent save(Agent agent) {
-        String sql = "INSERT INTO agents (code, name, region, status, last_update) VALUES (?, ?, ?, ?, ?)";
+        String sql = "INSERT INTO agents (code, name, region, status, last_update) "
+                + "OUTPUT inserted.id, CAST(inserted.row_version AS BIGINT) VALUES (?, ?, ?, ?, ?)";
         try (Connection connection = dataSource.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+             PreparedStatement statement = prepare(connection, sql)) {
             statement.setString(1, agent.getCode());
             statement.setString(2, agent.getName());
             statement.setString(3, agent.getRegion());
-            statement.setString(4, agent.getStatus());
+            statement.setString(4, statusCode(agent.getStatus()));
             statement.setTimestamp(5, Timestamp.valueOf(agent.getLastUpdate()));
-            statement.executeUpdate();
-            try (ResultSet keys = statement.getGeneratedKeys()) {
+            try (ResultSet keys = statement.executeQuery()) {
                 if (keys.next()) {
                     agent.setId(keys.getLong(1));
+                    agent.setVersion(keys.getLong(2));
                 }
             }
             return agent;
@@ -80,46 +216,434 @@ public class SqlServerAgentDAO implements AgentDAO {
     }
 
     @Override
-    public Agent update(long id, Agent agent) {
-        String sql = "UPDATE agents SET code = ?, name = ?, region = ?, status = ?, last_update = ? WHERE id = ?";
+    public List<Agent> saveAll(List<Agent> agents) {
+        if (agents.isEmpty()) {
+            return agents;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                for (int from = 0; from < agents.size(); from += MAX_INSERT_ROWS) {
+                    insertRows(connection, agents.subList(from, Math.min(agents.size(), from + MAX_INSERT_ROWS)));
+                }
+                connection.commit();
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            return agents;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to save " + agents.size() + " agents", e);
+        }
+    }
+
+    private void insertRows(Connection connection, List<Agent> rows) throws Exception {
+        // Output rows are not guaranteed to follow the VALUES order, so they are matched back by unique code.
+        Map<String, Agent> byCode = new HashMap<>(rows.size() * 2);
+        try (PreparedStatement statement = prepare(connection, insertAllSql(rows.size()))) {
+            int index = 1;
+            for (Agent agent : rows) {
+                statement.setString(index++, agent.getCode());
+                statement.setString(index++, agent.getName());
+                statement.setString(index++, agent.getRegion());
+                statement.setString(index++, statusCode(agent.getStatus()));
+                statement.setTimestamp(index++, Timestamp.valueOf(agent.getLastUpdate()));
+                byCode.put(agent.getCode(), agent);
+            }
+            try (ResultSet keys = statement.executeQuery()) {
+                while (keys.next()) {
+                    Agent agent = byCode.get(keys.getString(3));
+                    agent.setId(keys.getLong(1));
+                    agent.setVersion(keys.getLong(2));
+                }
+            }
+        }
+    }
+
+    /**
+     * Multi-row insert returning id, version and code of every inserted row.
+     */
+    String insertAllSql(int rows) {
+        return "INSERT INTO agents (code, name, region, status, last_update) "
+                + "OUTPUT inserted.id, CAST(inserted.row_version AS BIGINT), inserted.code VALUES " + valueRows(rows);
+    }
+
+    static String valueRows(int rows) {
+        StringBuilder values = new StringBuilder(rows * 17);
+        for (int i = 0; i < rows; i++) {
+            values.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+        }
+        return values.toString();
+    }
+
+    @Override
+    public Optional<AgentUpdate> update(long id, Agent agent, Long expectedVersion) {
+        // An unknown status is left out of the SET list, so the stored value survives the update.
+        boolean keepStatus = agent.getStatus() == AgentStatus.SCONOSCIUTO;
+        String sql = "UPDATE agents SET code = ?, name = ?, region = ?, " + (keepStatus ? "" : "status = ?, ")
+                + "last_update = ? OUTPUT " + outputColumns("inserted") + ", " + PREVIOUS_COLUMNS + " WHERE id = ?"
+                + (expectedVersion != null ? " AND row_version = CAST(? AS BINARY(8))" : "");
         agent.setLastUpdate(LocalDateTime.now());
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setString(1, agent.getCode());
-            statement.setString(2, agent.getName());
-            statement.setString(3, agent.getRegion());
-            statement.setString(4, agent.getStatus());
-            statement.setTimestamp(5, Timestamp.valueOf(agent.getLastUpdate()));
-            statement.setLong(6, id);
-            statement.executeUpdate();
-            agent.setId(id);
-            return agent;
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = prepare(connection, sql)) {
+                statement.setString(1, agent.getCode());
+                statement.setString(2, agent.getName());
+                statement.setString(3, agent.getRegion());
+                int index = 4;
+                if (!keepStatus) {
+                    statement.setString(index++, statusCode(agent.getStatus()));
+                }
+                statement.setTimestamp(index++, Timestamp.valueOf(agent.getLastUpdate()));
+                statement.setLong(index++, id);
+                if (expectedVersion != null) {
+                    statement.setLong(index, expectedVersion);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return Optional.of(new AgentUpdate(mapPreviousRow(resultSet), mapRow(resultSet)));
+                    }
+                }
+            }
+            return notFoundOrStale(connection, id, expectedVersion);
+        } catch (StaleAgentException e) {
+            throw e;
         } catch (Exception e) {
             throw new IllegalStateException("Unable to update agent with id " + id, e);
         }
     }
 
     @Override
-    public void delete(long id) {
-        String sql = "DELETE FROM agents WHERE id = ?";
-        try (Connection connection = dataSource.getConnection();
-             PreparedStatement statement = connection.prepareStatement(sql)) {
-            statement.setLong(1, id);
-            statement.executeUpdate();
+    public Optional<Agent> delete(long id, Long expectedVersion) {
+        String deleteSql = "DELETE FROM agents OUTPUT " + outputColumns("deleted") + " WHERE id = ?"
+                + (expectedVersion != null ? " AND row_version = CAST(? AS BINARY(8))" : "");
+        String tombstoneSql = "INSERT INTO agent_tombstones (agent_id) "
+                + "OUTPUT CAST(inserted.row_version AS BIGINT) VALUES (?)";
+        try (Connection connection = dataSource.getConnection()) {
+            // One transaction keeps the change feed atomic, and the tombstone's version is the one reported.
+            connection.setAutoCommit(false);
+            try {
+                Agent deleted = null;
+                try (PreparedStatement statement = prepare(connection, deleteSql)) {
+                    statement.setLong(1, id);
+                    if (expectedVersion != null) {
+                        statement.setLong(2, expectedVersion);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        if (resultSet.next()) {
+                            deleted = mapRow(resultSet);
+                        }
+                    }
+                }
+                if (deleted != null) {
+                    try (PreparedStatement statement = prepare(connection, tombstoneSql)) {
+                        statement.setLong(1, id);
+                        try (ResultSet resultSet = statement.executeQuery()) {
+                            resultSet.next();
+                            deleted.setVersion(resultSet.getLong(1));
+                        }
+                    }
+                }
+                connection.commit();
+                return deleted != null ? Optional.of(deleted) : notFoundOrStale(connection, id, expectedVersion);
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (StaleAgentException e) {
+            throw e;
         } catch (Exception e) {
             throw new IllegalStateException("Unable to delete agent with id " + id, e);
         }
     }
 
-    private Agent mapRow(ResultSet rs) throws Exception {
+    @Override
+    public AgentChanges findChangesSince(long token) {
+        // Rows whose version is at or above MIN_ACTIVE_ROWVERSION may still belong to an open
+        // transaction; stopping just below it guarantees no change is ever skipped.
+        String boundSql = "SELECT CAST(MIN_ACTIVE_ROWVERSION() AS BIGINT) - 1";
+        String upsertSql = "SELECT " + COLUMNS + " FROM agents "
+                + "WHERE row_version > CAST(? AS BINARY(8)) AND row_version <= CAST(? AS BINARY(8)) ORDER BY id";
+        String deleteSql = "SELECT agent_id FROM agent_tombstones "
+                + "WHERE row_version > CAST(? AS BINARY(8)) AND row_version <= CAST(? AS BINARY(8))";
+        try (Connection connection = dataSource.getConnection()) {
+            long upperBound;
+            try (PreparedStatement statement = prepare(connection, boundSql);
+                 ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                upperBound = resultSet.getLong(1);
+            }
+            if (upperBound <= token) {
+                checkNotPurged(connection, token);
+                return new AgentChanges(List.of(), List.of(), token);
+            }
+            List<Agent> upserts = new ArrayList<>();
+            try (PreparedStatement statement = prepare(connection, upsertSql)) {
+                statement.setLong(1, token);
+                statement.setLong(2, upperBound);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        upserts.add(mapRow(resultSet));
+                    }
+                }
+            }
+            List<Long> deletes = new ArrayList<>();
+            try (PreparedStatement statement = prepare(connection, deleteSql)) {
+                statement.setLong(1, token);
+                statement.setLong(2, upperBound);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        deletes.add(resultSet.getLong(1));
+                    }
+                }
+            }
+            checkNotPurged(connection, token);
+            return new AgentChanges(upserts, deletes, upperBound);
+        } catch (SyncTokenExpiredException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to retrieve agent changes since " + token, e);
+        }
+    }
+
+    /**
+     * Throws if tombstones after the token have been purged. Called after the
+     * tombstones are read: a purge raises the floor before deleting, so one
+     * that removed any of them in between is seen here.
+     */
+    static void checkNotPurged(Connection connection, long token) throws SQLException {
+        if (token == 0) {
+            return;
+        }
+        try (PreparedStatement statement = prepare(connection, "SELECT row_version FROM agent_tombstone_floor");
+             ResultSet resultSet = statement.executeQuery()) {
+            long floor = resultSet.next() ? resultSet.getLong(1) : 0L;
+            if (token < floor) {
+                throw new SyncTokenExpiredException(token, floor);
+            }
+        }
+    }
+
+    @Override
+    public long purgeTombstones(Duration retention) {
+        return purgeTombstones(retention,
+                "SELECT CAST(MAX(row_version) AS BIGINT) FROM agent_tombstones "
+                        + "WHERE deleted_at < DATEADD(SECOND, ?, SYSUTCDATETIME())",
+                "DELETE TOP (" + PURGE_BATCH_ROWS + ") FROM agent_tombstones "
+                        + "WHERE row_version <= CAST(? AS BINARY(8))");
+    }
+
+    /**
+     * Raises the floor to the newest expired tombstone, then deletes up to it
+     * in batches. Versions grow with time, so nothing newer is deleted.
+     *
+     * @param floorSql  the newest expired version, given the retention as negative seconds
+     * @param deleteSql deletes at most {@link #PURGE_BATCH_ROWS} tombstones up to a version
+     */
+    long purgeTombstones(Duration retention, String floorSql, String deleteSql) {
+        String raiseSql = "UPDATE agent_tombstone_floor SET row_version = ? WHERE row_version < ?";
+        try (Connection connection = dataSource.getConnection()) {
+            long floor;
+            try (PreparedStatement statement = prepare(connection, floorSql)) {
+                statement.setLong(1, -retention.toSeconds());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    floor = resultSet.getLong(1);
+                }
+            }
+            if (floor == 0) {
+                return 0;
+            }
+            try (PreparedStatement statement = prepare(connection, raiseSql)) {
+                statement.setLong(1, floor);
+                statement.setLong(2, floor);
+                statement.executeUpdate();
+            }
+            long purged = 0;
+            int deleted;
+            do {
+                try (PreparedStatement statement = prepare(connection, deleteSql)) {
+                    statement.setLong(1, floor);
+                    deleted = statement.executeUpdate();
+                }
+                purged += deleted;
+            } while (deleted == PURGE_BATCH_ROWS);
+            return purged;
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to purge agent tombstones", e);
+        }
+    }
+
+    /**
+     * Read from the same database as the listings, so the version always matches the data served with it.
+     */
+    @Override
+    public long currentVersion() {
+        return currentVersion(readDataSource);
+    }
+
+    long currentVersion(DataSource source) {
+        try (Connection connection = source.getConnection()) {
+            return currentVersion(connection);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to read current agent version", e);
+        }
+    }
+
+    static long currentVersion(Connection connection) throws SQLException {
+        // Two seeks on the row_version indexes; a delete moves the maximum through its tombstone, and
+        // the purge floor keeps it from going back once that tombstone is gone.
+        String sql = "SELECT MAX(v) FROM ("
+                + "SELECT CAST(MAX(row_version) AS BIGINT) AS v FROM agents "
+                + "UNION ALL SELECT CAST(MAX(row_version) AS BIGINT) FROM agent_tombstones "
+                + "UNION ALL SELECT row_version FROM agent_tombstone_floor) versions";
+        try (PreparedStatement statement = prepare(connection, sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            return resultSet.next() ? resultSet.getLong(1) : 0L;
+        }
+    }
+
+    @Override
+    public AgentStats countByRegionAndStatus() {
+        // Covered by ix_agents_region_status, so the table itself is never read.
+        String sql = "SELECT region, status, COUNT(*) FROM agents GROUP BY region, status";
+        Map<String, Map<AgentStatus, Long>> counts = new HashMap<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql);
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                counts.computeIfAbsent(resultSet.getString(1), region -> new EnumMap<>(AgentStatus.class))
+                        .merge(readStatus(resultSet.getString(2)), resultSet.getLong(3), Long::sum);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to count agents", e);
+        }
+        return new AgentStats(counts);
+    }
+
+    private List<Agent> findByColumn(String column, String value) {
+        String sql = "SELECT " + COLUMNS + " FROM agents WHERE " + column + " = ? ORDER BY id";
+        List<Agent> agents = new ArrayList<>();
+        try (Connection connection = readDataSource.getConnection();
+             PreparedStatement statement = prepare(connection, sql)) {
+            statement.setString(1, value);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    agents.add(mapRow(resultSet));
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to retrieve agents by " + column, e);
+        }
+        return agents;
+    }
+
+    /**
+     * Only reached when a write matched no row: with a version condition a second
+     * lookup tells a missing agent apart from a conflict, so the common path stays
+     * at one round trip.
+     */
+    <T> Optional<T> notFoundOrStale(Connection connection, long id, Long expectedVersion) throws Exception {
+        if (expectedVersion == null) {
+            return Optional.empty();
+        }
+        try (PreparedStatement statement = prepare(connection, "SELECT 1 FROM agents WHERE id = ?")) {
+            statement.setLong(1, id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    throw new StaleAgentException(id, expectedVersion);
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Prepares the statement under the calling task's {@link QueryDeadline}, if any.
+     */
+    static PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            QueryDeadline.apply(statement);
+        } catch (SQLException | RuntimeException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    static String statusCode(AgentStatus status) {
+        return status != null ? status.name() : null;
+    }
+
+    private static String outputColumns(String table) {
+        return table + ".id, " + table + ".code, " + table + ".name, " + table + ".region, "
+                + table + ".status, " + table + ".last_update, CAST(" + table + ".row_version AS BIGINT) AS version";
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_")
+                .replace("[", "\\[");
+    }
+
+    // Package-private so the row mapping benchmark can drive it with an in-memory ResultSet.
+    static Agent mapRow(ResultSet rs) throws Exception {
         Agent agent = new Agent();
         agent.setId(rs.getLong("id"));
         agent.setCode(rs.getString("code"));
         agent.setName(rs.getString("name"));
         agent.setRegion(rs.getString("region"));
-        agent.setStatus(rs.getString("status"));
+        agent.setStatus(readStatus(rs.getString("status")));
         Timestamp timestamp = rs.getTimestamp("last_update");
         agent.setLastUpdate(timestamp != null ? timestamp.toLocalDateTime() : null);
+        agent.setVersion(rs.getLong("version"));
         return agent;
     }
+
+    /**
+     * Maps the {@link #PREVIOUS_COLUMNS} an update outputs for the row it replaced.
+     */
+    static Agent mapPreviousRow(ResultSet rs) throws Exception {
+        Agent agent = new Agent();
+        agent.setId(rs.getLong("id"));
+        agent.setCode(rs.getString("previous_code"));
+        agent.setName(rs.getString("previous_name"));
+        agent.setRegion(rs.getString("previous_region"));
+        agent.setStatus(readStatus(rs.getString("previous_status")));
+        Timestamp timestamp = rs.getTimestamp("previous_last_update");
+        agent.setLastUpdate(timestamp != null ? timestamp.toLocalDateTime() : null);
+        agent.setVersion(rs.getLong("previous_version"));
+        return agent;
+    }
+
+    /**
+     * Maps a stored status without failing the whole page, export or count on
+     * one bad row: the {@code ck_agents_status} constraint only covers rows
+     * written since it was added. Case and surrounding blanks are ignored, and
+     * a status this server does not know reads as {@link AgentStatus#SCONOSCIUTO},
+     * which {@link #update} leaves as stored, and is logged once.
+     */
+    static AgentStatus readStatus(String code) {
+        for (AgentStatus status : STATUSES) {
+            if (status.name().equals(code)) {
+                return status;
+            }
+        }
+        if (code != null) {
+            for (AgentStatus status : STATUSES) {
+                if (status.name().equalsIgnoreCase(code.trim())) {
+                    return status;
+                }
+            }
+        }
+        if (UNKNOWN_STATUSES.add(String.valueOf(code))) {
+            LOGGER.warn("Unknown agent status '{}' in the database, read as {}", code, AgentStatus.SCONOSCIUTO);
+        }
+        return AgentStatus.SCONOSCIUTO;
+    }
 }
@@ -0,0 +1,12 @@
+package com.managementagent.server.dao;
+
+/**
+ * Thrown when a conditional write targets an agent whose version no longer
+ * matches the one the caller read, i.e. someone else changed it in between.
+ */
+public class StaleAgentException extends RuntimeException {
+
+    public StaleAgentException(long id, long expectedVersion) {
+        super("Agent " + id + " no longer has version " + expectedVersion);
+    }
+}
@@ -0,0 +1,13 @@
+package com.managementagent.server.dao;
+
+/**
+ * Thrown when a change-feed token predates tombstones that have since been
+ * purged, so the deletions made after it can no longer be listed. The caller
+ * has to reload everything, starting again from token {@code 0}.
+ */
+public class SyncTokenExpiredException extends RuntimeException {
+
+    public SyncTokenExpiredException(long token, long floor) {
+        super("Sync token " + token + " is older than the change feed's retention (" + floor + "); reload from 0");
+    }
+}
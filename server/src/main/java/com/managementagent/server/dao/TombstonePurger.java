@@ -0,0 +1,56 @@
+package com.managementagent.server.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drops the tombstones of deletions older than the retention at a fixed
+ * interval, so the change feed's deletion log stays bounded. A client whose
+ * sync token predates the purged tombstones is told to reload everything.
+ */
+public final class TombstonePurger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TombstonePurger.class);
+
+    private final AgentDAO agentDAO;
+    private final Duration retention;
+    private final LongAdder purged = new LongAdder();
+    private final ScheduledExecutorService scheduler;
+
+    public TombstonePurger(AgentDAO agentDAO, Duration retention, long intervalMillis) {
+        this.agentDAO = agentDAO;
+        this.retention = retention;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tombstone-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::purge, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getPurgedCount() {
+        return purged.sum();
+    }
+
+    private void purge() {
+        try {
+            long count = agentDAO.purgeTombstones(retention);
+            if (count > 0) {
+                purged.add(count);
+                LOGGER.info("Purged {} agent tombstones older than {}", count, retention);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to purge agent tombstones", e);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,94 @@
+package com.managementagent.server.factory;
+
+import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic generator of realistic-looking agents for load tests. Agent
+ * {@code n} is always the same for a given seed, so runs are reproducible and
+ * a load driver can compute valid codes without asking the server. Regions and
+ * statuses are skewed the way production data is rather than uniform.
+ */
+public class AgentDataGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentDataGenerator.class);
+    private static final String[] REGIONS = {"Lombardia", "Lazio", "Campania", "Sicilia", "Veneto", "Piemonte",
+            "Emilia-Romagna", "Puglia", "Toscana", "Calabria"};
+    // Cumulative percentages: the first regions hold most of the agents.
+    private static final int[] REGION_WEIGHTS = {22, 38, 50, 60, 69, 77, 84, 90, 96, 100};
+    private static final AgentStatus[] STATUSES = {AgentStatus.ATTIVO, AgentStatus.SOSPESO, AgentStatus.INATTIVO};
+    private static final int[] STATUS_WEIGHTS = {80, 90, 100};
+    private static final String[] FIRST_NAMES = {"Marco", "Giulia", "Luca", "Sara", "Paolo", "Chiara", "Andrea",
+            "Elena", "Matteo", "Francesca"};
+    private static final String[] LAST_NAMES = {"Rossi", "Russo", "Ferrari", "Esposito", "Bianchi", "Romano",
+            "Colombo", "Ricci", "Marino", "Greco"};
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2024, 1, 1, 0, 0);
+    private static final int LOG_EVERY = 100_000;
+    private static final int SEED_BATCH = 1000;
+
+    private final long seed;
+
+    public AgentDataGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public static String code(long index) {
+        return String.format("AG-%09d", index);
+    }
+
+    public Agent agent(long index) {
+        long random = mix(seed + index);
+        Agent agent = new Agent();
+        agent.setCode(code(index));
+        agent.setName(FIRST_NAMES[(int) ((random >>> 8) % FIRST_NAMES.length)] + " "
+                + LAST_NAMES[(int) ((random >>> 16) % LAST_NAMES.length)]);
+        agent.setRegion(REGIONS[pick(REGION_WEIGHTS, (int) ((random >>> 24) % 100))]);
+        agent.setStatus(STATUSES[pick(STATUS_WEIGHTS, (int) ((random >>> 32) % 100))]);
+        agent.setLastUpdate(EPOCH.plusSeconds((random >>> 40) % (365L * 24 * 3600)));
+        return agent;
+    }
+
+    /**
+     * Saves agents {@code 1..count} through the DAO, {@value #SEED_BATCH} per transaction.
+     */
+    public void seed(AgentDAO dao, int count) {
+        long start = System.nanoTime();
+        List<Agent> batch = new ArrayList<>(SEED_BATCH);
+        for (long index = 1; index <= count; index++) {
+            batch.add(agent(index));
+            if (batch.size() == SEED_BATCH || index == count) {
+                dao.saveAll(batch);
+                batch.clear();
+            }
+            if (index % LOG_EVERY == 0) {
+                LOGGER.info("Seeded {} of {} agents", index, count);
+            }
+        }
+        LOGGER.info("Seeded {} agents in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static int pick(int[] cumulativeWeights, int percentile) {
+        int i = 0;
+        while (percentile >= cumulativeWeights[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * SplitMix64 finalizer: a cheap, well-distributed hash of the index.
+     */
+    private static long mix(long value) {
+        long z = value * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return (z ^ (z >>> 31)) & Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,84 @@
+package com.managementagent.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram. Recording only increments striped
+ * {@link LongAdder}s, so it is lock-free and allocates nothing on the hot path;
+ * buckets are cumulative only when rendered.
+ */
+public final class LatencyHistogram {
+
+    private static final long[] UPPER_BOUNDS_NANOS = {
+            micros(100), micros(250), micros(500),
+            millis(1), millis(2) + micros(500), millis(5),
+            millis(10), millis(25), millis(50),
+            millis(100), millis(250), millis(500),
+            millis(1000), millis(2500), millis(5000), millis(10000)
+    };
+
+    private final LongAdder[] buckets = new LongAdder[UPPER_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int index = 0;
+        while (index < UPPER_BOUNDS_NANOS.length && nanos > UPPER_BOUNDS_NANOS[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Records the time elapsed since a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Appends the {@code _bucket}, {@code _sum} and {@code _count} samples in
+     * Prometheus text format, in seconds. {@code labels} is the rendered label
+     * list without braces, possibly empty.
+     */
+    void writeTo(StringBuilder out, String name, String labels) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String bound = i < UPPER_BOUNDS_NANOS.length ? Double.toString(seconds(UPPER_BOUNDS_NANOS[i])) : "+Inf";
+            out.append(name).append("_bucket{").append(labels).append(separator)
+                    .append("le=\"").append(bound).append("\"} ").append(cumulative).append('\n');
+        }
+        String braced = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braced).append(' ').append(seconds(sumNanos.sum())).append('\n');
+        out.append(name).append("_count").append(braced).append(' ').append(cumulative).append('\n');
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static long micros(long value) {
+        return TimeUnit.MICROSECONDS.toNanos(value);
+    }
+
+    private static long millis(long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+}
@@ -0,0 +1,118 @@
+package com.managementagent.server.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Collects histograms, gauges and counters and renders them in the Prometheus
+ * text exposition format. Registration is synchronized and meant for startup;
+ * values are read from their owners only when {@link #scrape()} runs.
+ */
+public class MetricsRegistry {
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Registers a histogram owned by the caller under the given name and label
+     * pairs ({@code "route", "/agents", ...}).
+     */
+    public LatencyHistogram register(String name, String help, LatencyHistogram histogram, String... labels) {
+        family(name, help, "histogram").samples.add(new Sample(renderLabels(labels), histogram, null));
+        return histogram;
+    }
+
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return register(name, help, new LatencyHistogram(), labels);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").samples.add(new Sample(renderLabels(labels), null, value));
+    }
+
+    /**
+     * Registers a monotonically increasing value; by convention the name ends in {@code _total}.
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "counter").samples.add(new Sample(renderLabels(labels), null, value));
+    }
+
+    public String scrape() {
+        List<Family> snapshot;
+        synchronized (families) {
+            snapshot = new ArrayList<>(families.values());
+        }
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : snapshot) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Sample sample : family.samples) {
+                if (sample.histogram != null) {
+                    sample.histogram.writeTo(out, family.name, sample.labels);
+                } else {
+                    out.append(family.name);
+                    if (!sample.labels.isEmpty()) {
+                        out.append('{').append(sample.labels).append('}');
+                    }
+                    out.append(' ').append(sample.value.getAsDouble()).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        synchronized (families) {
+            Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+            if (!family.type.equals(type)) {
+                throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+            }
+            return family;
+        }
+    }
+
+    private static String renderLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                rendered.append(',');
+            }
+            rendered.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return rendered.toString();
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        // Appended during registration while scrapes may iterate.
+        private final List<Sample> samples = new CopyOnWriteArrayList<>();
+
+        private Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class Sample {
+        private final String labels;
+        private final LatencyHistogram histogram;
+        private final DoubleSupplier value;
+
+        private Sample(String labels, LatencyHistogram histogram, DoubleSupplier value) {
+            this.labels = labels;
+            this.histogram = histogram;
+            this.value = value;
+        }
+    }
+}
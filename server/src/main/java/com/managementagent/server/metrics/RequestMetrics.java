@@ -0,0 +1,57 @@
+package com.managementagent.server.metrics;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request logger recording the latency of every HTTP request into a histogram
+ * per method and route template, so {@code /agents/{id}} is one series
+ * however many ids are requested. Requests no route matched share one series.
+ */
+public class RequestMetrics {
+
+    private static final String METRIC = "http_request_duration_seconds";
+    private static final String HELP = "HTTP request latency by method and route, until the response completes.";
+    private static final String UNMATCHED = "unmatched";
+
+    private final MetricsRegistry registry;
+    private final Map<HandlerType, Map<String, LatencyHistogram>> histograms = new EnumMap<>(HandlerType.class);
+
+    public RequestMetrics(MetricsRegistry registry) {
+        this.registry = registry;
+        for (HandlerType type : HandlerType.values()) {
+            histograms.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Signature of Javalin's {@code RequestLogger}; timings arrive in milliseconds.
+     */
+    public void record(Context ctx, Float executionTimeMs) {
+        String route = ctx.endpointHandlerPath();
+        // Without a matching route Javalin reports a message here instead of a path.
+        if (route == null || !route.startsWith("/")) {
+            route = UNMATCHED;
+        }
+        Map<String, LatencyHistogram> byRoute = histograms.get(ctx.method());
+        LatencyHistogram histogram = byRoute.get(route);
+        if (histogram == null) {
+            histogram = register(byRoute, ctx.method(), route);
+        }
+        histogram.record((long) (executionTimeMs * 1_000_000L));
+    }
+
+    private synchronized LatencyHistogram register(Map<String, LatencyHistogram> byRoute, HandlerType method,
+                                                   String route) {
+        LatencyHistogram histogram = byRoute.get(route);
+        if (histogram == null) {
+            histogram = registry.histogram(METRIC, HELP, "method", method.name(), "route", route);
+            byRoute.put(route, histogram);
+        }
+        return histogram;
+    }
+}
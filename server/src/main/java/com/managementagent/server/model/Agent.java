@@ -1,36 +1,46 @@
 package com.managementagent.server.model;
 
 import java.time.LocalDateTime;
-import java.util.Objects;
 
 /**
- * Represents an agent domain entity.
+ * Represents an agent domain entity. Kept compact because large lists of
+ * agents live in memory: a primitive id, an enum status and a region shared
+ * through {@link RegionDictionary}.
  */
 public class Agent {
-    private Long id;
+    private long id;
     private String code;
     private String name;
     private String region;
-    private String status;
+    private AgentStatus status;
     private LocalDateTime lastUpdate;
+    private long version;
 
     public Agent() {
     }
 
-    public Agent(Long id, String code, String name, String region, String status, LocalDateTime lastUpdate) {
+    public Agent(long id, String code, String name, String region, AgentStatus status, LocalDateTime lastUpdate) {
         this.id = id;
         this.code = code;
         this.name = name;
-        this.region = region;
+        this.region = RegionDictionary.canonical(region);
         this.status = status;
         this.lastUpdate = lastUpdate;
     }
 
-    public Long getId() {
+    public Agent(Agent other) {
+        this(other.id, other.code, other.name, other.region, other.status, other.lastUpdate);
+        this.version = other.version;
+    }
+
+    /**
+     * Database id; {@code 0} until the agent has been saved.
+     */
+    public long getId() {
         return id;
     }
 
-    public void setId(Long id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -55,14 +65,14 @@ public class Agent {
     }
 
     public void setRegion(String region) {
-        this.region = region;
+        this.region = RegionDictionary.canonical(region);
     }
 
-    public String getStatus() {
+    public AgentStatus getStatus() {
         return status;
     }
 
-    public void setStatus(String status) {
+    public void setStatus(AgentStatus status) {
         this.status = status;
     }
 
@@ -74,16 +84,27 @@ public class Agent {
         this.lastUpdate = lastUpdate;
     }
 
+    /**
+     * Monotonic row version, bumped by every write. Drives the change feed.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Agent agent = (Agent) o;
-        return Objects.equals(id, agent.id);
+        return id == agent.id;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return Long.hashCode(id);
     }
 }
@@ -0,0 +1,31 @@
+package com.managementagent.server.model;
+
+import java.util.List;
+
+/**
+ * Changes to the agent table since a sync token: agents created or updated,
+ * ids deleted, and the token to pass on the next call.
+ */
+public class AgentChanges {
+    private final List<Agent> upserts;
+    private final List<Long> deletes;
+    private final long nextToken;
+
+    public AgentChanges(List<Agent> upserts, List<Long> deletes, long nextToken) {
+        this.upserts = upserts;
+        this.deletes = deletes;
+        this.nextToken = nextToken;
+    }
+
+    public List<Agent> getUpserts() {
+        return upserts;
+    }
+
+    public List<Long> getDeletes() {
+        return deletes;
+    }
+
+    public long getNextToken() {
+        return nextToken;
+    }
+}
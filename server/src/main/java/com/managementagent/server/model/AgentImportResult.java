@@ -0,0 +1,53 @@
+package com.managementagent.server.model;
+
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: how many records became agents, how many were
+ * rejected, and why, by line of the upload. Only the first rejections are
+ * listed; {@code rejected} always counts all of them.
+ */
+public class AgentImportResult {
+    private final long accepted;
+    private final long rejected;
+    private final List<Rejection> rejections;
+
+    public AgentImportResult(long accepted, long rejected, List<Rejection> rejections) {
+        this.accepted = accepted;
+        this.rejected = rejected;
+        this.rejections = List.copyOf(rejections);
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<Rejection> getRejections() {
+        return rejections;
+    }
+
+    /**
+     * A record that was not imported, identified by the line it starts on.
+     */
+    public static class Rejection {
+        private final long line;
+        private final String reason;
+
+        public Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+    }
+}
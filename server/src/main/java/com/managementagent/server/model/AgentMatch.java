@@ -0,0 +1,41 @@
+package com.managementagent.server.model;
+
+/**
+ * Search result: enough of an agent to show it in a typeahead list, with the
+ * full agent a {@code GET /agents/{id}} away.
+ */
+public class AgentMatch {
+    private final long id;
+    private final String code;
+    private final String name;
+    private final String region;
+    private final AgentStatus status;
+
+    public AgentMatch(long id, String code, String name, String region, AgentStatus status) {
+        this.id = id;
+        this.code = code;
+        this.name = name;
+        this.region = region;
+        this.status = status;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    public AgentStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,26 @@
+package com.managementagent.server.model;
+
+import java.util.List;
+
+/**
+ * A keyset-paginated slice of agents ordered by id. {@code nextCursor} is the id
+ * to pass as {@code after} to fetch the following page, or {@code null} when
+ * the last page has been reached.
+ */
+public class AgentPage {
+    private final List<Agent> items;
+    private final Long nextCursor;
+
+    public AgentPage(List<Agent> items, Long nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Agent> getItems() {
+        return items;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+}
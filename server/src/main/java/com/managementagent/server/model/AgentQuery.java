@@ -0,0 +1,92 @@
+package com.managementagent.server.model;
+
+import java.util.Objects;
+
+/**
+ * Filter, sort and limit criteria for agent lookups. Unset filters match every
+ * agent; results are ordered by {@code sortField} with id as tie-breaker.
+ */
+public class AgentQuery {
+    private String region;
+    private AgentStatus status;
+    private String codePrefix;
+    private AgentSortField sortField = AgentSortField.ID;
+    private boolean descending;
+    private long afterId;
+    private Integer limit;
+
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public AgentStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(AgentStatus status) {
+        this.status = status;
+    }
+
+    public String getCodePrefix() {
+        return codePrefix;
+    }
+
+    public void setCodePrefix(String codePrefix) {
+        this.codePrefix = codePrefix;
+    }
+
+    public AgentSortField getSortField() {
+        return sortField;
+    }
+
+    public void setSortField(AgentSortField sortField) {
+        this.sortField = sortField;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public void setDescending(boolean descending) {
+        this.descending = descending;
+    }
+
+    /**
+     * Keyset cursor: only agents with a greater id are returned. Only
+     * meaningful with the default ascending id ordering.
+     */
+    public long getAfterId() {
+        return afterId;
+    }
+
+    public void setAfterId(long afterId) {
+        this.afterId = afterId;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        AgentQuery that = (AgentQuery) o;
+        return descending == that.descending && afterId == that.afterId && Objects.equals(region, that.region)
+                && Objects.equals(status, that.status) && Objects.equals(codePrefix, that.codePrefix)
+                && sortField == that.sortField && Objects.equals(limit, that.limit);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(region, status, codePrefix, sortField, descending, afterId, limit);
+    }
+}
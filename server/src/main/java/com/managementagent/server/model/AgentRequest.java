@@ -1,13 +1,16 @@
 package com.managementagent.server.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 /**
  * Data transfer object for incoming agent requests.
  */
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class AgentRequest {
     private String code;
     private String name;
     private String region;
-    private String status;
+    private AgentStatus status;
 
     public String getCode() {
         return code;
@@ -33,11 +36,11 @@ public class AgentRequest {
         this.region = region;
     }
 
-    public String getStatus() {
+    public AgentStatus getStatus() {
         return status;
     }
 
-    public void setStatus(String status) {
+    public void setStatus(AgentStatus status) {
         this.status = status;
     }
 }
@@ -0,0 +1,44 @@
+package com.managementagent.server.model;
+
+import java.util.Comparator;
+
+/**
+ * Whitelist of the columns agents can be sorted by. Only these column names are
+ * ever concatenated into SQL; everything else is bound as a parameter.
+ */
+public enum AgentSortField {
+    ID("id", "id", Comparator.comparingLong(Agent::getId)),
+    CODE("code", "code", Comparator.comparing(Agent::getCode, Comparator.nullsFirst(Comparator.naturalOrder()))),
+    NAME("name", "name", Comparator.comparing(Agent::getName, Comparator.nullsFirst(Comparator.naturalOrder()))),
+    REGION("region", "region", Comparator.comparing(Agent::getRegion, Comparator.nullsFirst(Comparator.naturalOrder()))),
+    STATUS("status", "status", Comparator.comparing(Agent::getStatus, Comparator.nullsFirst(Comparator.naturalOrder()))),
+    LAST_UPDATE("lastUpdate", "last_update",
+            Comparator.comparing(Agent::getLastUpdate, Comparator.nullsFirst(Comparator.naturalOrder())));
+
+    private final String parameter;
+    private final String column;
+    private final Comparator<Agent> comparator;
+
+    AgentSortField(String parameter, String column, Comparator<Agent> comparator) {
+        this.parameter = parameter;
+        this.column = column;
+        this.comparator = comparator;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Comparator<Agent> getComparator() {
+        return comparator;
+    }
+
+    public static AgentSortField fromParameter(String parameter) {
+        for (AgentSortField field : values()) {
+            if (field.parameter.equals(parameter)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported sort field: " + parameter);
+    }
+}
@@ -0,0 +1,65 @@
+package com.managementagent.server.model;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Agent counts by region and status, with totals per status and overall.
+ * Combinations without agents are left out.
+ */
+public class AgentStats {
+    private final long total;
+    private final Map<AgentStatus, Long> statuses;
+    private final Map<String, Map<AgentStatus, Long>> regions;
+
+    /**
+     * @param regions counts by region and status; copied, sorted by region and status
+     */
+    public AgentStats(Map<String, Map<AgentStatus, Long>> regions) {
+        Map<String, Map<AgentStatus, Long>> sorted = new TreeMap<>();
+        Map<AgentStatus, Long> statusTotals = new EnumMap<>(AgentStatus.class);
+        long sum = 0;
+        for (Map.Entry<String, Map<AgentStatus, Long>> region : regions.entrySet()) {
+            Map<AgentStatus, Long> counts = new EnumMap<>(AgentStatus.class);
+            region.getValue().forEach((status, count) -> {
+                if (count > 0) {
+                    counts.put(status, count);
+                    statusTotals.merge(status, count, Long::sum);
+                }
+            });
+            if (!counts.isEmpty()) {
+                sorted.put(region.getKey(), Collections.unmodifiableMap(counts));
+                sum += counts.values().stream().mapToLong(Long::longValue).sum();
+            }
+        }
+        this.total = sum;
+        this.statuses = Collections.unmodifiableMap(statusTotals);
+        this.regions = Collections.unmodifiableMap(sorted);
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public Map<AgentStatus, Long> getStatuses() {
+        return statuses;
+    }
+
+    public Map<String, Map<AgentStatus, Long>> getRegions() {
+        return regions;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof AgentStats)) return false;
+        return regions.equals(((AgentStats) o).regions);
+    }
+
+    @Override
+    public int hashCode() {
+        return regions.hashCode();
+    }
+}
@@ -0,0 +1,45 @@
+package com.managementagent.server.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+/**
+ * Lifecycle state of an agent, stored and serialized by name. Declared in
+ * alphabetical order so that sorting in memory matches {@code ORDER BY status}.
+ */
+public enum AgentStatus {
+    ATTIVO,
+    INATTIVO,
+    /**
+     * A stored status this server does not know, left by rows written before
+     * {@code ck_agents_status}. It is never stored: an update carrying it keeps
+     * the row's stored status, and it cannot be given to a new agent.
+     */
+    SCONOSCIUTO,
+    SOSPESO;
+
+    @JsonValue
+    public String getCode() {
+        return name();
+    }
+
+    /**
+     * Whether this is a real status rather than {@link #SCONOSCIUTO}.
+     */
+    public boolean isKnown() {
+        return this != SCONOSCIUTO;
+    }
+
+    /**
+     * @throws IllegalArgumentException for a status this server does not know
+     */
+    @JsonCreator
+    public static AgentStatus fromCode(String code) {
+        for (AgentStatus status : values()) {
+            if (status.name().equals(code)) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported agent status: " + code);
+    }
+}
@@ -0,0 +1,23 @@
+package com.managementagent.server.model;
+
+/**
+ * Result of an update: the agent as written and as it was just before, so
+ * listeners can tell what changed without reading it back.
+ */
+public class AgentUpdate {
+    private final Agent previous;
+    private final Agent agent;
+
+    public AgentUpdate(Agent previous, Agent agent) {
+        this.previous = previous;
+        this.agent = agent;
+    }
+
+    public Agent getPrevious() {
+        return previous;
+    }
+
+    public Agent getAgent() {
+        return agent;
+    }
+}
@@ -0,0 +1,36 @@
+package com.managementagent.server.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonical instances of region names. Regions are a small set repeated on
+ * every row, so agents share one {@code String} per region instead of holding
+ * the copy each JDBC row or JSON body creates. Past {@link #MAX_ENTRIES}
+ * distinct names new ones are kept as they are, so unexpected input cannot
+ * grow the dictionary without bound.
+ */
+public final class RegionDictionary {
+
+    static final int MAX_ENTRIES = 4096;
+
+    private static final ConcurrentMap<String, String> REGIONS = new ConcurrentHashMap<>();
+
+    private RegionDictionary() {
+    }
+
+    public static String canonical(String region) {
+        if (region == null) {
+            return null;
+        }
+        String known = REGIONS.get(region);
+        if (known != null) {
+            return known;
+        }
+        if (REGIONS.size() >= MAX_ENTRIES) {
+            return region;
+        }
+        known = REGIONS.putIfAbsent(region, region);
+        return known != null ? known : region;
+    }
+}
@@ -0,0 +1,125 @@
+package com.managementagent.server.observer;
+
+import com.managementagent.server.model.Agent;
+
+import java.util.List;
+
+/**
+ * Immutable envelope for an agent event, used when events are queued for
+ * asynchronous delivery.
+ */
+public final class AgentEvent {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED, IMPORTED
+    }
+
+    private final Type type;
+    private final long agentId;
+    private final Agent previous;
+    private final Agent agent;
+    private final List<Agent> agents;
+    private final long publishedAtNanos;
+
+    private AgentEvent(Type type, long agentId, Agent previous, Agent agent, List<Agent> agents) {
+        this(type, agentId, previous, agent, agents, System.nanoTime());
+    }
+
+    private AgentEvent(Type type, long agentId, Agent previous, Agent agent, List<Agent> agents,
+                       long publishedAtNanos) {
+        this.type = type;
+        this.agentId = agentId;
+        this.previous = previous;
+        this.agent = agent;
+        this.agents = agents;
+        this.publishedAtNanos = publishedAtNanos;
+    }
+
+    public static AgentEvent created(Agent agent) {
+        return new AgentEvent(Type.CREATED, agent.getId(), null, agent, null);
+    }
+
+    public static AgentEvent updated(Agent previous, Agent agent) {
+        return new AgentEvent(Type.UPDATED, agent.getId(), previous, agent, null);
+    }
+
+    public static AgentEvent deleted(Agent agent) {
+        return new AgentEvent(Type.DELETED, agent.getId(), agent, null, null);
+    }
+
+    /**
+     * One event for a whole import; it concerns no single agent, so its agent id is {@code 0}.
+     */
+    public static AgentEvent imported(List<Agent> agents) {
+        return new AgentEvent(Type.IMPORTED, 0, null, null, List.copyOf(agents));
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getAgentId() {
+        return agentId;
+    }
+
+    /**
+     * The agent before the change; {@code null} for creations.
+     */
+    public Agent getPrevious() {
+        return previous;
+    }
+
+    /**
+     * The agent after the change; {@code null} for deletions.
+     */
+    public Agent getAgent() {
+        return agent;
+    }
+
+    /**
+     * The imported agents; {@code null} for other events.
+     */
+    public List<Agent> getAgents() {
+        return agents;
+    }
+
+    public long getPublishedAtNanos() {
+        return publishedAtNanos;
+    }
+
+    /**
+     * Folds {@code next} into a still undelivered {@code pending} event for the same agent, so that
+     * delivering the result has the same net effect as delivering both: a creation absorbs later
+     * updates, updates keep the oldest previous state, a deletion keeps the state listeners last saw
+     * and a creation followed by a deletion cancels out ({@code null}). The merged event keeps the
+     * publication time of {@code pending}.
+     */
+    static AgentEvent merge(AgentEvent pending, AgentEvent next) {
+        return switch (pending.type) {
+            case CREATED -> switch (next.type) {
+                case UPDATED -> new AgentEvent(Type.CREATED, pending.agentId, null, next.agent, null,
+                        pending.publishedAtNanos);
+                case DELETED -> null;
+                default -> next;
+            };
+            case UPDATED -> switch (next.type) {
+                case UPDATED -> new AgentEvent(Type.UPDATED, pending.agentId, pending.previous, next.agent, null,
+                        pending.publishedAtNanos);
+                case DELETED -> new AgentEvent(Type.DELETED, pending.agentId, pending.previous, null, null,
+                        pending.publishedAtNanos);
+                default -> next;
+            };
+            // Ids are never reused, so nothing follows a deletion or precedes a creation in practice.
+            default -> next;
+        };
+    }
+
+    void dispatchTo(AgentEventListener listener) {
+        switch (type) {
+            case CREATED -> listener.onAgentCreated(agent);
+            case UPDATED -> listener.onAgentUpdated(previous, agent);
+            case DELETED -> listener.onAgentDeleted(previous);
+            case IMPORTED -> listener.onAgentsImported(agents);
+        }
+    }
+}
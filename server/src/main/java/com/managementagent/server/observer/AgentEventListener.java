@@ -2,6 +2,8 @@ package com.managementagent.server.observer;
 
 import com.managementagent.server.model.Agent;
 
+import java.util.List;
+
 /**
  * Observer contract for agent events.
  */
@@ -9,7 +11,21 @@ public interface AgentEventListener {
 
     void onAgentCreated(Agent agent);
 
-    void onAgentUpdated(Agent agent);
+    /**
+     * @param previous the agent as it was before the update
+     */
+    void onAgentUpdated(Agent previous, Agent agent);
+
+    /**
+     * @param agent the agent as it was before deletion, with the version of the deletion
+     */
+    void onAgentDeleted(Agent agent);
 
-    void onAgentDeleted(long agentId);
+    /**
+     * A chunk of a bulk import, delivered once per committed chunk instead of
+     * one creation per agent.
+     *
+     * @param agents the agents created by the chunk, ids and versions filled in
+     */
+    void onAgentsImported(List<Agent> agents);
 }
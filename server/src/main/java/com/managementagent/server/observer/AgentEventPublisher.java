@@ -1,34 +1,320 @@
 package com.managementagent.server.observer;
 
+import com.managementagent.server.metrics.LatencyHistogram;
 import com.managementagent.server.model.Agent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Basic publisher implementing the Observer pattern for audit or logging extensions.
+ *
+ * <p>By default listeners are called synchronously on the publishing thread.
+ * In asynchronous mode every listener gets its own bounded, preallocated queue
+ * and consumer thread that drains it in batches, so publishing only costs an
+ * enqueue and a slow listener cannot add latency to write requests. What
+ * happens when a queue is full is decided by the {@link OverflowPolicy}.</p>
  */
 public class AgentEventPublisher {
 
+    /**
+     * Behaviour when a listener's queue is full: {@code BLOCK} waits for room,
+     * {@code DROP} discards the event, {@code COALESCE} keeps one pending event
+     * per agent id until the listener catches up, merging later events into it:
+     * {@code CREATED}+{@code UPDATED} stays a {@code CREATED} of the new agent,
+     * {@code UPDATED}+{@code UPDATED} keeps the earliest previous state and the
+     * latest agent, {@code UPDATED}+{@code DELETED} becomes a {@code DELETED} of
+     * that earliest state and {@code CREATED}+{@code DELETED} drops both, so
+     * listeners that keep aggregates still add up.
+     */
+    public enum OverflowPolicy {
+        BLOCK, DROP, COALESCE
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentEventPublisher.class);
+    private static final int MAX_BATCH = 256;
+
     private final List<AgentEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<AgentEventListener, ListenerChannel> channels = new ConcurrentHashMap<>();
+    private final Map<AgentEventListener, LatencyHistogram> dispatchTimes = new ConcurrentHashMap<>();
+    private final boolean asynchronous;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    public AgentEventPublisher() {
+        this.asynchronous = false;
+        this.queueCapacity = 0;
+        this.overflowPolicy = OverflowPolicy.BLOCK;
+    }
+
+    public AgentEventPublisher(int queueCapacity, OverflowPolicy overflowPolicy) {
+        this.asynchronous = true;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
 
     public void register(AgentEventListener listener) {
+        dispatchTimes.put(listener, new LatencyHistogram());
+        if (asynchronous) {
+            ListenerChannel channel = new ListenerChannel(listener);
+            channels.put(listener, channel);
+            channel.start();
+        }
         listeners.add(listener);
     }
 
     public void unregister(AgentEventListener listener) {
         listeners.remove(listener);
+        dispatchTimes.remove(listener);
+        ListenerChannel channel = channels.remove(listener);
+        if (channel != null) {
+            channel.stop();
+        }
     }
 
     public void publishAgentCreated(Agent agent) {
-        listeners.forEach(listener -> listener.onAgentCreated(agent));
+        publish(AgentEvent.created(agent));
+    }
+
+    public void publishAgentUpdated(Agent previous, Agent agent) {
+        publish(AgentEvent.updated(previous, agent));
+    }
+
+    public void publishAgentDeleted(Agent agent) {
+        publish(AgentEvent.deleted(agent));
+    }
+
+    public void publishAgentsImported(List<Agent> agents) {
+        publish(AgentEvent.imported(agents));
+    }
+
+    public List<ListenerStats> getListenerStats() {
+        List<ListenerStats> stats = new ArrayList<>();
+        channels.values().forEach(channel -> stats.add(channel.stats()));
+        return stats;
     }
 
-    public void publishAgentUpdated(Agent agent) {
-        listeners.forEach(listener -> listener.onAgentUpdated(agent));
+    /**
+     * Delivery figures for one listener, or {@code null} unless it is
+     * registered with asynchronous dispatch.
+     */
+    public ListenerStats getListenerStats(AgentEventListener listener) {
+        ListenerChannel channel = channels.get(listener);
+        return channel != null ? channel.stats() : null;
     }
 
-    public void publishAgentDeleted(long agentId) {
-        listeners.forEach(listener -> listener.onAgentDeleted(agentId));
+    /**
+     * Time the listener spends handling each event, or {@code null} if it is not registered.
+     */
+    public LatencyHistogram getDispatchTime(AgentEventListener listener) {
+        return dispatchTimes.get(listener);
+    }
+
+    /**
+     * Stops the consumer threads after they have delivered what is already queued.
+     */
+    public void shutdown() {
+        channels.values().forEach(ListenerChannel::stop);
+    }
+
+    private void publish(AgentEvent event) {
+        if (asynchronous) {
+            for (ListenerChannel channel : channels.values()) {
+                channel.enqueue(event);
+            }
+        } else {
+            for (AgentEventListener listener : listeners) {
+                long start = System.nanoTime();
+                try {
+                    event.dispatchTo(listener);
+                } finally {
+                    recordDispatch(listener, start);
+                }
+            }
+        }
+    }
+
+    private void recordDispatch(AgentEventListener listener, long startNanos) {
+        LatencyHistogram histogram = dispatchTimes.get(listener);
+        if (histogram != null) {
+            histogram.recordSince(startNanos);
+        }
+    }
+
+    /**
+     * Point-in-time delivery figures for one listener.
+     */
+    public static final class ListenerStats {
+        private final String listener;
+        private final int queued;
+        private final long delivered;
+        private final long dropped;
+        private final long coalesced;
+        private final long lastLagNanos;
+
+        private ListenerStats(String listener, int queued, long delivered, long dropped, long coalesced,
+                              long lastLagNanos) {
+            this.listener = listener;
+            this.queued = queued;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+            this.lastLagNanos = lastLagNanos;
+        }
+
+        public String getListener() {
+            return listener;
+        }
+
+        /**
+         * Events waiting to be delivered.
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /**
+         * Time between publication and delivery of the most recently delivered event.
+         */
+        public long getLastLagNanos() {
+            return lastLagNanos;
+        }
+    }
+
+    private final class ListenerChannel implements Runnable {
+        private final AgentEventListener listener;
+        private final BlockingQueue<AgentEvent> queue = new ArrayBlockingQueue<>(queueCapacity);
+        // Only used by COALESCE: once non-empty, new events go here until drained to keep per-agent order.
+        private final Map<Long, AgentEvent> overflow = new ConcurrentHashMap<>();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder coalesced = new LongAdder();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong lastLagNanos = new AtomicLong();
+        private final Thread consumer;
+        private volatile boolean running = true;
+
+        private ListenerChannel(AgentEventListener listener) {
+            this.listener = listener;
+            this.consumer = new Thread(this, "agent-events-" + listener.getClass().getSimpleName());
+            this.consumer.setDaemon(true);
+        }
+
+        private void start() {
+            consumer.start();
+        }
+
+        private void stop() {
+            running = false;
+            try {
+                consumer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void enqueue(AgentEvent event) {
+            switch (overflowPolicy) {
+                case BLOCK -> {
+                    try {
+                        queue.put(event);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped.increment();
+                    }
+                }
+                case DROP -> {
+                    if (!queue.offer(event)) {
+                        dropped.increment();
+                    }
+                }
+                case COALESCE -> {
+                    if (event.getType() == AgentEvent.Type.IMPORTED) {
+                        // An import cannot be merged with anything and only holds new agents, so it waits for room.
+                        try {
+                            queue.put(event);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped.increment();
+                        }
+                    } else if (!overflow.isEmpty() || !queue.offer(event)) {
+                        overflow.compute(event.getAgentId(), (id, pending) -> {
+                            if (pending == null) {
+                                return event;
+                            }
+                            AgentEvent merged = AgentEvent.merge(pending, event);
+                            coalesced.add(merged == null ? 2 : 1);
+                            return merged;
+                        });
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            List<AgentEvent> batch = new ArrayList<>(MAX_BATCH);
+            while (running || !queue.isEmpty() || !overflow.isEmpty()) {
+                try {
+                    // With coalesced events pending there is work already, so the queue is not waited on.
+                    AgentEvent first = overflow.isEmpty() ? queue.poll(100, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (first != null) {
+                        batch.add(first);
+                        queue.drainTo(batch, MAX_BATCH - 1);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (Iterator<Long> ids = overflow.keySet().iterator(); ids.hasNext() && batch.size() < MAX_BATCH; ) {
+                    AgentEvent latest = overflow.remove(ids.next());
+                    if (latest != null) {
+                        batch.add(latest);
+                    }
+                }
+                batch.forEach(this::deliver);
+                batch.clear();
+            }
+        }
+
+        private void deliver(AgentEvent event) {
+            long start = System.nanoTime();
+            try {
+                event.dispatchTo(listener);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Listener {} failed on {} event for agent {}",
+                        listener.getClass().getSimpleName(), event.getType(), event.getAgentId(), e);
+            }
+            recordDispatch(listener, start);
+            delivered.incrementAndGet();
+            lastLagNanos.set(System.nanoTime() - event.getPublishedAtNanos());
+        }
+
+        private ListenerStats stats() {
+            return new ListenerStats(listener.getClass().getSimpleName(), queue.size() + overflow.size(),
+                    delivered.get(), dropped.sum(), coalesced.sum(), lastLagNanos.get());
+        }
     }
 }
@@ -4,6 +4,8 @@ import com.managementagent.server.model.Agent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+
 /**
  * Simple listener logging events. Useful to extend the observer pipeline.
  */
@@ -17,12 +19,17 @@ public class LoggingAgentListener implements AgentEventListener {
     }
 
     @Override
-    public void onAgentUpdated(Agent agent) {
+    public void onAgentUpdated(Agent previous, Agent agent) {
         LOGGER.info("Agent updated: {}", agent.getCode());
     }
 
     @Override
-    public void onAgentDeleted(long agentId) {
-        LOGGER.info("Agent deleted: {}", agentId);
+    public void onAgentDeleted(Agent agent) {
+        LOGGER.info("Agent deleted: {}", agent.getId());
+    }
+
+    @Override
+    public void onAgentsImported(List<Agent> agents) {
+        LOGGER.info("Agents imported: {}", agents.size());
     }
 }
@@ -0,0 +1,297 @@
+package com.managementagent.server.observer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentStatus;
+import io.javalin.http.sse.SseClient;
+import org.eclipse.jetty.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Listener pushing agent events to subscribed HTTP clients over Server-Sent
+ * Events. Each subscription can filter by region and status and owns a bounded
+ * buffer drained by a small shared pool, so a slow client never delays a write
+ * request. When a buffer overflows the client is either disconnected or, with
+ * the {@code drop} policy, loses events and is told to {@code resync} through
+ * the change feed. A client whose socket blocks a send for longer than the
+ * send timeout is disconnected, so it cannot hold a pool thread. A bulk
+ * import is announced the same way, with a {@code resync} at most once a
+ * second while its chunks commit, rather than one event per imported agent.
+ */
+public class PushAgentListener implements AgentEventListener {
+
+    public enum OverflowPolicy {
+        DISCONNECT, DROP
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PushAgentListener.class);
+    private static final long HEARTBEAT_SECONDS = 15;
+    private static final long STALL_CHECK_MILLIS = 1000;
+    private static final long RESYNC_INTERVAL_MILLIS = 1000;
+
+    private final ObjectMapper objectMapper;
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+    private final long sendTimeoutNanos;
+    private final Map<Long, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong subscriptionIds = new AtomicLong();
+    private final AtomicLong disconnectedSlowConsumers = new AtomicLong();
+    private final AtomicBoolean importPending = new AtomicBoolean();
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+    public PushAgentListener(ObjectMapper objectMapper, int bufferSize, OverflowPolicy overflowPolicy,
+                             int dispatchThreads, long sendTimeoutMillis) {
+        this.objectMapper = objectMapper;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.dispatcher = Executors.newFixedThreadPool(dispatchThreads);
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+        heartbeat.scheduleAtFixedRate(this::disconnectStalled, STALL_CHECK_MILLIS, STALL_CHECK_MILLIS,
+                TimeUnit.MILLISECONDS);
+        heartbeat.scheduleAtFixedRate(this::announceImports, RESYNC_INTERVAL_MILLIS, RESYNC_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers an SSE client; {@code region} and {@code status} are optional
+     * filters. An agent that stops matching them, by an update or a deletion,
+     * is announced to the client as {@code deleted}.
+     */
+    public void subscribe(SseClient client, String region, AgentStatus status) {
+        long id = subscriptionIds.incrementAndGet();
+        Subscription subscription = new Subscription(id, client, region, status);
+        subscriptions.put(id, subscription);
+        client.onClose(() -> subscriptions.remove(id));
+        client.keepAlive();
+        // Tells the client it is subscribed, so it can catch up on what it missed.
+        subscription.offer(PushEvent.HEARTBEAT);
+    }
+
+    @Override
+    public void onAgentCreated(Agent agent) {
+        publish(agent, new PushEvent("created", toJson(agent)));
+    }
+
+    @Override
+    public void onAgentUpdated(Agent previous, Agent agent) {
+        PushEvent updated = new PushEvent("updated", toJson(agent));
+        PushEvent left = deleted(agent);
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.accepts(agent)) {
+                subscription.offer(updated);
+            } else if (previous != null && subscription.accepts(previous)) {
+                subscription.offer(left);
+            }
+        }
+    }
+
+    @Override
+    public void onAgentDeleted(Agent agent) {
+        publish(agent, deleted(agent));
+    }
+
+    @Override
+    public void onAgentsImported(List<Agent> agents) {
+        // Called once per chunk: the chunks committed within an interval share one resync.
+        importPending.set(true);
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    public long getDisconnectedSlowConsumerCount() {
+        return disconnectedSlowConsumers.get();
+    }
+
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        subscriptions.values().forEach(Subscription::close);
+        dispatcher.shutdown();
+    }
+
+    private void publish(Agent agent, PushEvent event) {
+        for (Subscription subscription : subscriptions.values()) {
+            if (agent == null || subscription.accepts(agent)) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    private void sendHeartbeat() {
+        subscriptions.values().forEach(subscription -> subscription.offer(PushEvent.HEARTBEAT));
+    }
+
+    private void announceImports() {
+        if (importPending.getAndSet(false)) {
+            publish(null, PushEvent.RESYNC);
+        }
+    }
+
+    private void disconnectStalled() {
+        long now = System.nanoTime();
+        for (Subscription subscription : subscriptions.values()) {
+            long started = subscription.sendStartedNanos;
+            if (started != 0 && now - started > sendTimeoutNanos) {
+                LOGGER.warn("Disconnecting push subscriber {} stuck in a send", subscription.id);
+                disconnectedSlowConsumers.incrementAndGet();
+                subscription.abort();
+            }
+        }
+    }
+
+    private static PushEvent deleted(Agent agent) {
+        return new PushEvent("deleted", "{\"id\":" + agent.getId() + "}");
+    }
+
+    private String toJson(Agent agent) {
+        try {
+            return objectMapper.writeValueAsString(agent);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to serialize agent " + agent.getId(), e);
+        }
+    }
+
+    private static final class PushEvent {
+        private static final PushEvent HEARTBEAT = new PushEvent(null, null);
+        private static final PushEvent RESYNC = new PushEvent("resync", "{}");
+
+        private final String name;
+        private final String data;
+
+        private PushEvent(String name, String data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private final class Subscription implements Runnable {
+        private final long id;
+        private final SseClient client;
+        private final String region;
+        private final AgentStatus status;
+        private final BlockingQueue<PushEvent> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean overflowed = new AtomicBoolean();
+        private volatile boolean closing;
+        private volatile long sendStartedNanos;
+
+        private Subscription(long id, SseClient client, String region, AgentStatus status) {
+            this.id = id;
+            this.client = client;
+            this.region = region;
+            this.status = status;
+        }
+
+        private boolean accepts(Agent agent) {
+            return (region == null || Objects.equals(region, agent.getRegion()))
+                    && (status == null || status == agent.getStatus());
+        }
+
+        private void offer(PushEvent event) {
+            if (closing) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                    LOGGER.warn("Disconnecting slow push subscriber {}", id);
+                    disconnectedSlowConsumers.incrementAndGet();
+                    buffer.clear();
+                    abort();
+                    return;
+                } else {
+                    overflowed.set(true);
+                }
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                dispatcher.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                PushEvent event;
+                while (!closing && (event = buffer.poll()) != null) {
+                    send(event);
+                }
+                if (!closing && buffer.isEmpty() && overflowed.compareAndSet(true, false)) {
+                    send(PushEvent.RESYNC);
+                }
+                if (closing) {
+                    close();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("Push subscriber {} failed, closing", id, e);
+                close();
+            } finally {
+                scheduled.set(false);
+                if (!closing && !buffer.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        private void send(PushEvent event) {
+            sendStartedNanos = System.nanoTime();
+            try {
+                if (event == PushEvent.HEARTBEAT) {
+                    client.sendComment("heartbeat");
+                } else {
+                    client.sendEvent(event.name, event.data);
+                }
+            } finally {
+                sendStartedNanos = 0;
+            }
+        }
+
+        /**
+         * Drops the connection at once. Unlike {@link SseClient#close()} this
+         * also fails a send blocked on the socket, freeing its pool thread.
+         */
+        private void abort() {
+            closing = true;
+            subscriptions.remove(id);
+            try {
+                Request.getBaseRequest(client.ctx().req()).getHttpChannel()
+                        .abort(new IOException("Push subscriber " + id + " disconnected"));
+            } catch (RuntimeException e) {
+                LOGGER.debug("Unable to abort push subscriber {}", id, e);
+            }
+        }
+
+        private void close() {
+            closing = true;
+            subscriptions.remove(id);
+            try {
+                if (!client.terminated()) {
+                    client.close();
+                }
+            } catch (RuntimeException e) {
+                // Already aborted.
+                LOGGER.debug("Unable to close push subscriber {}", id, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.managementagent.server.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AIMD limit on the number of service calls in flight (queued or running).
+ * Calls over the limit are rejected immediately instead of waiting in the
+ * executor queue, so overload turns into fast failures rather than
+ * unbounded latency.
+ *
+ * <p>Every completed call reports its latency, queueing included. While calls
+ * finish within the target latency and the limit is actually in use, the limit
+ * grows by one per limit's worth of calls; a slower call cuts it by
+ * {@link #BACKOFF_RATIO}, at most once per target latency so that a burst of
+ * slow completions counts as one congestion signal.</p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    // Guarded by this; read without locking by tryAcquire.
+    private volatile double limit;
+    private long lastDecreaseNanos = System.nanoTime();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Takes a slot if one is free; every successful call must be paired with
+     * a {@code release}.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees the slot and feeds the call's latency into the limit.
+     */
+    public void release(long latencyNanos) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        adjust(latencyNanos, inFlightBefore);
+    }
+
+    /**
+     * Frees the slot without a latency sample, for calls whose duration does
+     * not reflect server load (full-list reads, which scale with the table).
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private synchronized void adjust(long latencyNanos, int inFlightBefore) {
+        long now = System.nanoTime();
+        if (latencyNanos > targetLatencyNanos) {
+            if (now - lastDecreaseNanos >= targetLatencyNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastDecreaseNanos = now;
+            }
+        } else if (inFlightBefore * 2 >= limit) {
+            // Growing an idle limit would only let the next burst through unchecked.
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+}
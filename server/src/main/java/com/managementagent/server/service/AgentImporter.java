@@ -0,0 +1,245 @@
+package com.managementagent.server.service;
+
+import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.dao.DeadlineExceededException;
+import com.managementagent.server.dao.QueryDeadline;
+import com.managementagent.server.factory.AgentFactory;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentImportResult;
+import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.observer.AgentEventPublisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk creation of agents from an upload. Records are read one chunk of
+ * {@code batchSize} at a time, parsed and validated in parallel, and the
+ * valid ones written with a single {@link AgentDAO#saveAll(List)}: one
+ * bounded transaction per chunk instead of one request, connection checkout
+ * and insert per agent. A chunk the database refuses is retried one agent at
+ * a time, like {@link InsertBatcher} does, so only the offending lines are
+ * rejected.
+ *
+ * <p>Listeners get one {@code onAgentsImported} event per committed chunk,
+ * so an import holds at most a chunk of agents in memory however large the
+ * upload. Codes repeated within a chunk are rejected here; across chunks
+ * the unique index on {@code code} rejects them.</p>
+ */
+public class AgentImporter {
+
+    /**
+     * The records of an upload, read in order by a single thread.
+     */
+    public interface Source {
+
+        /**
+         * @return the next record, or {@code null} at the end of the upload
+         */
+        String next() throws IOException;
+
+        /**
+         * Line of the upload on which the record last returned by {@link #next()} starts.
+         */
+        long line();
+
+        /**
+         * Turns a record into a request; called from several threads at once.
+         *
+         * @throws IllegalArgumentException with a message for the client if the record is malformed
+         */
+        AgentRequest parse(String record);
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentImporter.class);
+    private static final int MAX_REPORTED_REJECTIONS = 1000;
+    // Column sizes of the agents table.
+    private static final int MAX_CODE_LENGTH = 50;
+    private static final int MAX_NAME_LENGTH = 150;
+    private static final int MAX_REGION_LENGTH = 100;
+
+    private final AgentDAO agentDAO;
+    private final AgentFactory agentFactory;
+    private final AgentEventPublisher eventPublisher;
+    private final int batchSize;
+    private final LongAdder importedAgents = new LongAdder();
+    private final LongAdder rejectedRecords = new LongAdder();
+
+    public AgentImporter(AgentDAO agentDAO, AgentFactory agentFactory, AgentEventPublisher eventPublisher,
+                         int batchSize) {
+        this.agentDAO = agentDAO;
+        this.agentFactory = agentFactory;
+        this.eventPublisher = eventPublisher;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Reads the whole source on the calling thread and returns what happened
+     * to each record. An upload that cannot be read fails the import, but
+     * chunks committed before stay committed.
+     */
+    public AgentImportResult importAll(Source source) {
+        Run run = new Run();
+        try {
+            List<String> records = new ArrayList<>(batchSize);
+            List<Long> lines = new ArrayList<>(batchSize);
+            for (String record = source.next(); record != null; record = source.next()) {
+                records.add(record);
+                lines.add(source.line());
+                if (records.size() == batchSize) {
+                    importChunk(source, records, lines, run);
+                    records.clear();
+                    lines.clear();
+                }
+            }
+            importChunk(source, records, lines, run);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read the upload", e);
+        } finally {
+            importedAgents.add(run.accepted);
+            rejectedRecords.add(run.rejected);
+        }
+        return new AgentImportResult(run.accepted, run.rejected, run.rejections);
+    }
+
+    public long getImportedAgentCount() {
+        return importedAgents.sum();
+    }
+
+    public long getRejectedRecordCount() {
+        return rejectedRecords.sum();
+    }
+
+    private void importChunk(Source source, List<String> records, List<Long> lines, Run run) {
+        if (records.isEmpty()) {
+            return;
+        }
+        QueryDeadline deadline = QueryDeadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException();
+        }
+        Object[] parsed = new Object[records.size()];
+        // Parsing and validation are independent per record; only writing is ordered.
+        IntStream.range(0, records.size()).parallel().forEach(i -> parsed[i] = validate(source, records.get(i)));
+        List<Agent> agents = new ArrayList<>(records.size());
+        List<Long> agentLines = new ArrayList<>(records.size());
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] instanceof String reason) {
+                run.reject(lines.get(i), reason);
+            } else if (!codes.add(((Agent) parsed[i]).getCode())) {
+                run.reject(lines.get(i), "Duplicate code " + ((Agent) parsed[i]).getCode() + " in this upload");
+            } else {
+                agents.add((Agent) parsed[i]);
+                agentLines.add(lines.get(i));
+            }
+        }
+        List<Agent> saved = write(agents, agentLines, run);
+        if (!saved.isEmpty()) {
+            run.accepted += saved.size();
+            eventPublisher.publishAgentsImported(saved);
+        }
+    }
+
+    /**
+     * @return the agent to insert, or the reason the record is rejected
+     */
+    private Object validate(Source source, String record) {
+        AgentRequest request;
+        try {
+            request = source.parse(record);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        String reason = checkText("code", request.getCode(), MAX_CODE_LENGTH);
+        if (reason == null) {
+            reason = checkText("name", request.getName(), MAX_NAME_LENGTH);
+        }
+        if (reason == null) {
+            reason = checkText("region", request.getRegion(), MAX_REGION_LENGTH);
+        }
+        if (reason == null && request.getStatus() == null) {
+            reason = "status is required";
+        }
+        if (reason == null && !request.getStatus().isKnown()) {
+            reason = "status must be a known status";
+        }
+        return reason != null ? reason : agentFactory.createAgent(request);
+    }
+
+    private static String checkText(String field, String value, int maxLength) {
+        if (value == null || value.isBlank()) {
+            return field + " is required";
+        }
+        if (value.length() > maxLength) {
+            return field + " is longer than " + maxLength + " characters";
+        }
+        return null;
+    }
+
+    /**
+     * @return the agents committed
+     */
+    private List<Agent> write(List<Agent> agents, List<Long> lines, Run run) {
+        if (agents.isEmpty()) {
+            return agents;
+        }
+        try {
+            agentDAO.saveAll(agents);
+            return agents;
+        } catch (RuntimeException e) {
+            if (agents.size() == 1) {
+                run.reject(lines.get(0), rejectionReason(e));
+                return List.of();
+            }
+            LOGGER.warn("Import batch of {} agents failed, retrying one by one", agents.size(), e);
+        }
+        List<Agent> saved = new ArrayList<>(agents.size());
+        for (int i = 0; i < agents.size(); i++) {
+            try {
+                saved.add(agentDAO.save(agents.get(i)));
+            } catch (RuntimeException e) {
+                run.reject(lines.get(i), rejectionReason(e));
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * The DAO wraps driver errors; the innermost message is the one that names
+     * the constraint. Drivers may append the statement on further lines.
+     */
+    private static String rejectionReason(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        String message = String.valueOf(cause.getMessage());
+        int lineBreak = message.indexOf('\n');
+        return "Rejected by the database: " + (lineBreak < 0 ? message : message.substring(0, lineBreak));
+    }
+
+    /**
+     * State of one import.
+     */
+    private static final class Run {
+        private final List<AgentImportResult.Rejection> rejections = new ArrayList<>();
+        private long accepted;
+        private long rejected;
+
+        private void reject(long line, String reason) {
+            rejected++;
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+                rejections.add(new AgentImportResult.Rejection(line, reason));
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.managementagent.server.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.observer.AgentEventListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the full agent list serialized once as immutable byte arrays, plain
+ * and optionally gzip-compressed, so list requests are served without
+ * querying or serializing anything per request. Binary formats are
+ * transcoded from the JSON the first time a client asks for them, once per
+ * snapshot and format.
+ *
+ * <p>A snapshot is tied to the collection version it was built at and is
+ * rebuilt lazily by the first request that sees a newer version; concurrent
+ * requests share that single rebuild. Change events drop the current snapshot
+ * straight away, even one still being built, so a superseded copy does not
+ * stay in memory until the next read and a rebuild started before the change
+ * is not kept as current. Keying on the version rather than on events alone also catches writes
+ * made by other server instances.</p>
+ */
+public class AgentListSnapshot implements AgentEventListener {
+
+    private final AgentService agentService;
+    private final ObjectMapper objectMapper;
+    private final boolean gzipEnabled;
+    private final AtomicReference<Entry> current = new AtomicReference<>();
+
+    public AgentListSnapshot(AgentService agentService, ObjectMapper objectMapper, boolean gzipEnabled) {
+        this.agentService = agentService;
+        this.objectMapper = objectMapper;
+        this.gzipEnabled = gzipEnabled;
+    }
+
+    /**
+     * Returns a snapshot at least as recent as {@code version}, building it
+     * if needed.
+     */
+    public CompletableFuture<Snapshot> get(long version) {
+        while (true) {
+            Entry entry = current.get();
+            if (entry != null && entry.version >= version && !entry.snapshot.isCompletedExceptionally()) {
+                return entry.snapshot;
+            }
+            Entry rebuilt = new Entry(version, new CompletableFuture<>());
+            if (current.compareAndSet(entry, rebuilt)) {
+                // The version was read before this query, so the data is never older than the snapshot claims.
+                agentService.getAllAgentsAsync()
+                        .thenApply(agents -> build(version, agents))
+                        .whenComplete((snapshot, throwable) -> {
+                            if (throwable != null) {
+                                rebuilt.snapshot.completeExceptionally(throwable);
+                            } else {
+                                rebuilt.snapshot.complete(snapshot);
+                            }
+                        });
+                return rebuilt.snapshot;
+            }
+        }
+    }
+
+    @Override
+    public void onAgentCreated(Agent agent) {
+        invalidate();
+    }
+
+    @Override
+    public void onAgentUpdated(Agent previous, Agent agent) {
+        invalidate();
+    }
+
+    @Override
+    public void onAgentDeleted(Agent agent) {
+        invalidate();
+    }
+
+    @Override
+    public void onAgentsImported(List<Agent> agents) {
+        invalidate();
+    }
+
+    private void invalidate() {
+        // Requests already waiting on a rebuild still get it: it is as recent as the version they read.
+        current.set(null);
+    }
+
+    private Snapshot build(long version, List<Agent> agents) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(agents);
+            return new Snapshot(version, objectMapper.getFactory(), json, gzipEnabled ? gzip(json) : null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to serialize agent list", e);
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+            gzip.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Serialized agent list at a given collection version. The arrays are
+     * shared between requests and must not be modified.
+     */
+    public static final class Snapshot {
+        private final long version;
+        private final JsonFactory jsonFactory;
+        private final byte[] json;
+        private final byte[] gzipJson;
+        private final ConcurrentMap<ObjectMapper, byte[]> transcoded = new ConcurrentHashMap<>();
+
+        private Snapshot(long version, JsonFactory jsonFactory, byte[] json, byte[] gzipJson) {
+            this.version = version;
+            this.jsonFactory = jsonFactory;
+            this.json = json;
+            this.gzipJson = gzipJson;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        /**
+         * Gzip-compressed JSON, or {@code null} when compression is disabled.
+         */
+        public byte[] getGzipJson() {
+            return gzipJson;
+        }
+
+        /**
+         * The list encoded by another mapper sharing the JSON mapper's modules,
+         * e.g. Smile or CBOR, streamed token by token from the JSON.
+         */
+        public byte[] getEncoded(ObjectMapper mapper) {
+            return transcoded.computeIfAbsent(mapper, this::transcode);
+        }
+
+        private byte[] transcode(ObjectMapper mapper) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(64, json.length / 2));
+            try (JsonParser parser = jsonFactory.createParser(json);
+                 JsonGenerator generator = mapper.getFactory().createGenerator(buffer)) {
+                parser.nextToken();
+                generator.copyCurrentStructure(parser);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to transcode agent list", e);
+            }
+            return buffer.toByteArray();
+        }
+    }
+
+    private static final class Entry {
+        private final long version;
+        private final CompletableFuture<Snapshot> snapshot;
+
+        private Entry(long version, CompletableFuture<Snapshot> snapshot) {
+            this.version = version;
+            this.snapshot = snapshot;
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.managementagent.server.service;
+
+import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.dao.LongObjectHashMap;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentMatch;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.observer.AgentEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Typeahead search over agent codes and names, answered from an in-memory
+ * n-gram index kept in sync by agent events; the database is only read once,
+ * by {@link #start()}.
+ *
+ * <p>Codes and names are folded (lower case, accents stripped) and cut into
+ * trigrams, with markers for where the text starts and ends, plus the bigram
+ * at the start of every word so that one-letter prefixes can be looked up too.
+ * A query intersects the posting lists of its own grams and verifies each
+ * candidate, trying in order: exact code, code prefix, name prefix, prefix of
+ * a word of the name and, from {@value #MIN_SUBSTRING_LENGTH} characters,
+ * substring of either. Within a tier results follow index order and the
+ * search stops as soon as the limit is reached, so its cost depends on the
+ * limit rather than on how many agents match.</p>
+ *
+ * <p>Posting lists are append-only: a write marks the agent's previous
+ * document dead and appends a new one. Once dead documents outnumber live
+ * ones the index is rebuilt in the background, and the writes made meanwhile
+ * are replayed onto the rebuilt copy before it replaces the current one.</p>
+ *
+ * <p>Every document carries the agent's version, a removal that of the
+ * deletion. Events and the initial load may arrive in any order, so a
+ * document older than the indexed one is ignored, and so is anything for an
+ * agent already removed, since ids are never reused.</p>
+ */
+public class AgentSearchIndex implements AgentEventListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentSearchIndex.class);
+    private static final char START = '\u0002';
+    private static final char END = '\u0003';
+    private static final int MIN_SUBSTRING_LENGTH = 3;
+    private static final int MIN_DEAD_FOR_COMPACTION = 10_000;
+    private static final int MAX_INTERSECTED_LISTS = 3;
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final AgentDAO agentDAO;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "agent-search-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Segment segment = new Segment(1024);
+    // Deletion versions by id, kept across compactions; guarded by the lock.
+    private final LongObjectHashMap<Long> removed = new LongObjectHashMap<>(1024);
+    // Writes made while a compaction runs, replayed onto the rebuilt segment; null otherwise.
+    private List<Doc> pending;
+
+    public AgentSearchIndex(AgentDAO agentDAO) {
+        this.agentDAO = agentDAO;
+    }
+
+    /**
+     * Indexes every stored agent. Call once the store is loaded and before serving requests.
+     */
+    public void start() {
+        agentDAO.streamAll(this::put);
+        lock.writeLock().lock();
+        try {
+            segment.trim();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} agents whose code or name matches the query,
+     * best matches first; see the class description for the ranking.
+     */
+    public List<AgentMatch> search(String query, int limit) {
+        String folded = fold(query);
+        Results results = new Results(limit);
+        if (folded.isEmpty() || limit <= 0) {
+            return results.matches;
+        }
+        lock.readLock().lock();
+        try {
+            Segment current = segment;
+            current.scan(current.codeGrams, START + folded + END, results,
+                    doc -> equalsFolded(doc.codeText(), folded));
+            current.scan(current.codeGrams, START + folded, results,
+                    doc -> startsWithFolded(doc.codeText(), folded, 0));
+            current.scan(current.nameGrams, START + folded, results,
+                    doc -> startsWithFolded(doc.nameText(), folded, 0));
+            current.scan(current.nameGrams, " " + folded, results,
+                    doc -> hasWordStartingWith(doc.nameText(), folded));
+            if (folded.length() >= MIN_SUBSTRING_LENGTH) {
+                current.scan(current.codeGrams, folded, results, doc -> containsFolded(doc.codeText(), folded));
+                current.scan(current.nameGrams, folded, results, doc -> containsFolded(doc.nameText(), folded));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results.matches;
+    }
+
+    /**
+     * Agents currently searchable.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return segment.byId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onAgentCreated(Agent agent) {
+        put(agent);
+    }
+
+    @Override
+    public void onAgentUpdated(Agent previous, Agent agent) {
+        put(agent);
+    }
+
+    @Override
+    public void onAgentDeleted(Agent agent) {
+        apply(Doc.removal(agent.getId(), agent.getVersion()));
+    }
+
+    @Override
+    public void onAgentsImported(List<Agent> agents) {
+        // One agent per lock hold, so searches are not stalled for the whole import.
+        agents.forEach(this::put);
+    }
+
+    public void shutdown() {
+        compactor.shutdownNow();
+    }
+
+    private void put(Agent agent) {
+        // Folding is the expensive part, so it happens before taking the lock.
+        apply(new Doc(agent));
+    }
+
+    private void apply(Doc doc) {
+        lock.writeLock().lock();
+        try {
+            if (removed.get(doc.id) != null || !segment.put(doc)) {
+                return;
+            }
+            if (doc.removed) {
+                removed.put(doc.id, doc.version);
+            }
+            if (pending != null) {
+                pending.add(doc);
+            } else if (segment.deadCount > MIN_DEAD_FOR_COMPACTION && segment.deadCount > segment.byId.size()) {
+                Doc[] snapshot = Arrays.copyOf(segment.docs, segment.docCount);
+                int live = segment.byId.size();
+                pending = new ArrayList<>();
+                compactor.execute(() -> compact(snapshot, live));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void compact(Doc[] snapshot, int live) {
+        try {
+            Segment rebuilt = new Segment(live);
+            for (Doc doc : snapshot) {
+                if (doc != null) {
+                    rebuilt.put(doc.copy());
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                pending.forEach(doc -> rebuilt.put(doc.copy()));
+                rebuilt.trim();
+                LOGGER.debug("Search index compacted from {} to {} documents", segment.docCount, rebuilt.docCount);
+                segment = rebuilt;
+            } finally {
+                pending = null;
+                lock.writeLock().unlock();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to compact the search index, keeping the current one", e);
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Lower case, accents stripped and whitespace collapsed, so that queries
+     * and indexed text compare as typed by an operator.
+     */
+    static String fold(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(stripped).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean equalsFolded(String text, String folded) {
+        return text.length() == folded.length() && startsWithFolded(text, folded, 0);
+    }
+
+    private static boolean startsWithFolded(String text, String folded, int offset) {
+        return text.regionMatches(true, offset, folded, 0, folded.length());
+    }
+
+    private static boolean hasWordStartingWith(String text, String folded) {
+        for (int i = text.indexOf(' '); i >= 0; i = text.indexOf(' ', i + 1)) {
+            if (startsWithFolded(text, folded, i + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsFolded(String text, String folded) {
+        for (int i = 0; i <= text.length() - folded.length(); i++) {
+            if (startsWithFolded(text, folded, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Packs a gram into an int. Distinct grams may collide, which only adds
+     * candidates that verification then discards.
+     */
+    private static int gram(char first, char second, char third) {
+        return (first & 0x3FF) << 20 | (second & 0x3FF) << 10 | (third & 0x3FF);
+    }
+
+    /**
+     * Grams of a query pattern, or {@code null} when it is too short to be looked up.
+     */
+    private static int[] queryGrams(String pattern) {
+        if (pattern.length() == 2 && (pattern.charAt(0) == START || pattern.charAt(0) == ' ')) {
+            return new int[]{gram(pattern.charAt(0), pattern.charAt(1), '\0')};
+        }
+        if (pattern.length() < 3) {
+            return null;
+        }
+        int[] grams = new int[pattern.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = gram(pattern.charAt(i), pattern.charAt(i + 1), pattern.charAt(i + 2));
+        }
+        return Arrays.stream(grams).distinct().toArray();
+    }
+
+    /**
+     * One generation of the index. Not thread-safe; guarded by the outer lock.
+     */
+    private static final class Segment {
+        private Doc[] docs;
+        private int docCount;
+        private int deadCount;
+        private final LongObjectHashMap<Doc> byId;
+        private final Map<Integer, Postings> codeGrams = new HashMap<>();
+        private final Map<Integer, Postings> nameGrams = new HashMap<>();
+
+        private Segment(int expectedSize) {
+            this.docs = new Doc[Math.max(16, expectedSize)];
+            this.byId = new LongObjectHashMap<>(expectedSize);
+        }
+
+        /**
+         * Indexes the document unless the one already indexed for the agent
+         * is newer, returning whether it did.
+         */
+        private boolean put(Doc doc) {
+            Doc current = byId.get(doc.id);
+            if (current != null && current.version > doc.version) {
+                return false;
+            }
+            if (doc.removed) {
+                byId.remove(doc.id);
+            } else {
+                byId.put(doc.id, doc);
+            }
+            if (current != null) {
+                docs[current.docId] = null;
+                deadCount++;
+            }
+            if (doc.removed) {
+                return true;
+            }
+            if (docCount == docs.length) {
+                docs = Arrays.copyOf(docs, docs.length + (docs.length >> 1));
+            }
+            doc.docId = docCount;
+            docs[docCount++] = doc;
+            index(codeGrams, doc.codeText(), doc.docId);
+            index(nameGrams, doc.nameText(), doc.docId);
+            return true;
+        }
+
+        private static void index(Map<Integer, Postings> grams, String text, int docId) {
+            String padded = START + text.toLowerCase(Locale.ROOT) + END;
+            for (int i = 0; i + 2 < padded.length(); i++) {
+                add(grams, gram(padded.charAt(i), padded.charAt(i + 1), padded.charAt(i + 2)), docId);
+            }
+            for (int i = 0; i + 1 < padded.length(); i++) {
+                if (padded.charAt(i) == START || padded.charAt(i) == ' ') {
+                    add(grams, gram(padded.charAt(i), padded.charAt(i + 1), '\0'), docId);
+                }
+            }
+        }
+
+        private static void add(Map<Integer, Postings> grams, int gram, int docId) {
+            grams.computeIfAbsent(gram, key -> new Postings()).add(docId);
+        }
+
+        /**
+         * Adds the live documents holding every gram of the pattern and
+         * accepted by the check, until the results are full.
+         */
+        private void scan(Map<Integer, Postings> grams, String pattern, Results results, Predicate<Doc> check) {
+            int[] keys = queryGrams(pattern);
+            if (keys == null || results.isFull()) {
+                return;
+            }
+            Postings[] lists = new Postings[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                lists[i] = grams.get(keys[i]);
+                if (lists[i] == null) {
+                    return;
+                }
+            }
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+            // Verification checks every gram anyway; intersecting the common ones would only cost time.
+            int intersected = Math.min(lists.length, MAX_INTERSECTED_LISTS);
+            int[] cursors = new int[intersected];
+            Postings driver = lists[0];
+            for (int i = 0; i < driver.size; i++) {
+                int docId = driver.ids[i];
+                if (!inAll(lists, cursors, intersected, docId)) {
+                    continue;
+                }
+                Doc doc = docs[docId];
+                if (doc != null && !results.contains(docId) && check.test(doc)) {
+                    results.add(docId, doc);
+                    if (results.isFull()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private static boolean inAll(Postings[] lists, int[] cursors, int count, int docId) {
+            for (int j = 1; j < count; j++) {
+                cursors[j] = lists[j].advance(cursors[j], docId);
+                if (cursors[j] == lists[j].size || lists[j].ids[cursors[j]] != docId) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void trim() {
+            codeGrams.values().forEach(Postings::trim);
+            nameGrams.values().forEach(Postings::trim);
+        }
+    }
+
+    /**
+     * Sorted document ids holding one gram; documents are only ever appended.
+     */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        private void add(int docId) {
+            if (size > 0 && ids[size - 1] == docId) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1) + 1);
+            }
+            ids[size++] = docId;
+        }
+
+        /**
+         * Position of the first id not below {@code docId}, searching forward
+         * from {@code from} with exponentially growing steps.
+         */
+        private int advance(int from, int docId) {
+            if (from == size || ids[from] >= docId) {
+                return from;
+            }
+            int step = 1;
+            int low = from;
+            while (low + step < size && ids[low + step] < docId) {
+                low += step;
+                step <<= 1;
+            }
+            int position = Arrays.binarySearch(ids, low + 1, Math.min(low + step + 1, size), docId);
+            return position >= 0 ? position : -position - 1;
+        }
+
+        private void trim() {
+            if (ids.length > size) {
+                ids = Arrays.copyOf(ids, size);
+            }
+        }
+    }
+
+    /**
+     * An indexed agent, or the removal of one. The folded copies of code and
+     * name are only kept when they differ from the original by more than case.
+     */
+    private static final class Doc {
+        private final long id;
+        private final long version;
+        private final boolean removed;
+        private final String code;
+        private final String name;
+        private final String region;
+        private final AgentStatus status;
+        private final String foldedCode;
+        private final String foldedName;
+        private int docId;
+
+        private Doc(Agent agent) {
+            this(agent.getId(), agent.getVersion(), false, agent.getCode(), agent.getName(), agent.getRegion(),
+                    agent.getStatus());
+        }
+
+        private Doc(long id, long version, boolean removed, String code, String name, String region,
+                    AgentStatus status) {
+            this.id = id;
+            this.version = version;
+            this.removed = removed;
+            this.code = code != null ? code : "";
+            this.name = name != null ? name : "";
+            this.region = region;
+            this.status = status;
+            this.foldedCode = foldedIfNeeded(this.code);
+            this.foldedName = foldedIfNeeded(this.name);
+        }
+
+        private static Doc removal(long id, long version) {
+            return new Doc(id, version, true, null, null, null, null);
+        }
+
+        private Doc(Doc other) {
+            this.id = other.id;
+            this.version = other.version;
+            this.removed = other.removed;
+            this.code = other.code;
+            this.name = other.name;
+            this.region = other.region;
+            this.status = other.status;
+            this.foldedCode = other.foldedCode;
+            this.foldedName = other.foldedName;
+        }
+
+        /**
+         * A copy to add to another segment, which gives it its own document id.
+         */
+        private Doc copy() {
+            return new Doc(this);
+        }
+
+        private static String foldedIfNeeded(String text) {
+            String folded = fold(text);
+            return folded.equalsIgnoreCase(text) ? null : folded;
+        }
+
+        private String codeText() {
+            return foldedCode != null ? foldedCode : code;
+        }
+
+        private String nameText() {
+            return foldedName != null ? foldedName : name;
+        }
+
+        private AgentMatch toMatch() {
+            return new AgentMatch(id, code, name, region, status);
+        }
+    }
+
+    private static final class Results {
+        private final int limit;
+        private final List<AgentMatch> matches = new ArrayList<>();
+        private final Set<Integer> docIds = new HashSet<>();
+
+        private Results(int limit) {
+            this.limit = limit;
+        }
+
+        private boolean isFull() {
+            return matches.size() >= limit;
+        }
+
+        private boolean contains(int docId) {
+            return docIds.contains(docId);
+        }
+
+        private void add(int docId, Doc doc) {
+            docIds.add(docId);
+            matches.add(doc.toMatch());
+        }
+    }
+}
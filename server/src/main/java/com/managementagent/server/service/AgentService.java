@@ -1,74 +1,488 @@
 package com.managementagent.server.service;
 
 import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.dao.DeadlineExceededException;
+import com.managementagent.server.dao.QueryDeadline;
+import com.managementagent.server.dao.ReadRouting;
 import com.managementagent.server.factory.AgentFactory;
 import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentImportResult;
+import com.managementagent.server.model.AgentPage;
+import com.managementagent.server.model.AgentQuery;
 import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.model.AgentUpdate;
 import com.managementagent.server.observer.AgentEventPublisher;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * Service layer orchestrating DAO calls and async processing.
+ * Service layer orchestrating DAO calls and async processing. Calls made while
+ * a {@link QueryDeadline} or a {@link ReadRouting} is current on the calling
+ * thread run under them.
+ *
+ * <p>Bulk transfers, whose duration depends on how fast the client reads or
+ * uploads, run apart on an executor of their own with a few threads, which
+ * also caps the pooled connections they can hold. One over that cap is
+ * refused rather than queued, and each runs under a timeout of its own, so
+ * slow clients can never take the threads and connections of CRUD calls.</p>
  */
 public class AgentService {
 
+    private static final int DEFAULT_MAX_BULK_TRANSFERS = 2;
+    private static final long DEFAULT_BULK_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
     private final AgentDAO agentDAO;
     private final AgentFactory agentFactory;
     private final AgentEventPublisher eventPublisher;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    private final ExecutorService executorService;
+    private final Semaphore queryPermits;
+    private final InsertBatcher insertBatcher;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ExecutorService bulkExecutor;
+    private final Semaphore bulkSlots;
+    private final int maxBulkTransfers;
+    private final long bulkTimeoutMillis;
+    private final LongAdder rejectedBulkTransfers = new LongAdder();
+    private final LongAdder submittedTasks = new LongAdder();
+    private final LongAdder startedTasks = new LongAdder();
+    private final LongAdder completedTasks = new LongAdder();
+    private final ConcurrentMap<ReadKey, InFlightRead<?>> inFlightReads = new ConcurrentHashMap<>();
+    private final AtomicLong writeEpoch = new AtomicLong();
+    private final LongAdder coalescedReads = new LongAdder();
 
     public AgentService(AgentDAO agentDAO, AgentFactory agentFactory, AgentEventPublisher eventPublisher) {
+        this(agentDAO, agentFactory, eventPublisher, ServiceExecutors.fixed(4), 0);
+    }
+
+    /**
+     * @param maxConcurrentQueries upper bound on tasks touching the DAO at once,
+     *                             typically the connection pool size; {@code 0}
+     *                             leaves concurrency to the executor
+     */
+    public AgentService(AgentDAO agentDAO, AgentFactory agentFactory, AgentEventPublisher eventPublisher,
+                        ExecutorService executorService, int maxConcurrentQueries) {
+        this(agentDAO, agentFactory, eventPublisher, executorService, maxConcurrentQueries, null, null);
+    }
+
+    /**
+     * @param insertBatcher group-commits creates when not {@code null}; it is
+     *                      shut down together with this service
+     * @param limiter       admission control when not {@code null}: calls over
+     *                      its limit fail with {@link ServiceOverloadedException}
+     */
+    public AgentService(AgentDAO agentDAO, AgentFactory agentFactory, AgentEventPublisher eventPublisher,
+                        ExecutorService executorService, int maxConcurrentQueries, InsertBatcher insertBatcher,
+                        AdaptiveConcurrencyLimiter limiter) {
+        this(agentDAO, agentFactory, eventPublisher, executorService, maxConcurrentQueries, insertBatcher, limiter,
+                DEFAULT_MAX_BULK_TRANSFERS, DEFAULT_BULK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxBulkTransfers  streams and imports running at once, each on its
+     *                          own thread and connection
+     * @param bulkTimeoutMillis time after which a stream or import is cancelled
+     */
+    public AgentService(AgentDAO agentDAO, AgentFactory agentFactory, AgentEventPublisher eventPublisher,
+                        ExecutorService executorService, int maxConcurrentQueries, InsertBatcher insertBatcher,
+                        AdaptiveConcurrencyLimiter limiter, int maxBulkTransfers, long bulkTimeoutMillis) {
         this.agentDAO = agentDAO;
         this.agentFactory = agentFactory;
         this.eventPublisher = eventPublisher;
+        this.executorService = executorService;
+        this.queryPermits = maxConcurrentQueries > 0 ? new Semaphore(maxConcurrentQueries, true) : null;
+        this.insertBatcher = insertBatcher;
+        this.limiter = limiter;
+        this.bulkExecutor = ServiceExecutors.fixed(maxBulkTransfers);
+        this.bulkSlots = new Semaphore(maxBulkTransfers);
+        this.maxBulkTransfers = maxBulkTransfers;
+        this.bulkTimeoutMillis = bulkTimeoutMillis;
     }
 
     public CompletableFuture<List<Agent>> getAllAgentsAsync() {
-        return CompletableFuture.supplyAsync(agentDAO::findAll, executorService);
+        // A full scan takes as long as the table is big, not as the server is busy: kept out of the limit's samples.
+        return coalesce(new ReadKey("all", null), agentDAO::findAll, false);
+    }
+
+    public CompletableFuture<AgentPage> getAgentPageAsync(long afterId, int limit) {
+        return coalesce(new ReadKey("page", List.of(afterId, limit)), () -> {
+            // One extra row tells us whether another page follows without a second query.
+            List<Agent> agents = agentDAO.findPage(afterId, limit + 1);
+            if (agents.size() <= limit) {
+                return new AgentPage(agents, null);
+            }
+            List<Agent> items = agents.subList(0, limit);
+            return new AgentPage(items, items.get(limit - 1).getId());
+        }, true);
+    }
+
+    public CompletableFuture<List<Agent>> findAgentsAsync(AgentQuery query) {
+        return coalesce(new ReadKey("query", query), () -> agentDAO.findByQuery(query), true);
+    }
+
+    public CompletableFuture<AgentChanges> getChangesAsync(long since) {
+        return supply(() -> agentDAO.findChangesSince(since), true);
+    }
+
+    public CompletableFuture<Long> getCollectionVersionAsync() {
+        return coalesce(new ReadKey("version", null), agentDAO::currentVersion, true);
+    }
+
+    /**
+     * Streams every agent as a bulk transfer into the sink, which is opened on
+     * the bulk thread once a slot is taken: when all are, the future fails with
+     * {@link ServiceOverloadedException} before anything has been written.
+     *
+     * @return the sink, for the caller to finish
+     */
+    public <C extends Consumer<Agent>> CompletableFuture<C> streamAllAgentsAsync(Supplier<C> sink) {
+        return bulk(() -> {
+            QueryDeadline deadline = QueryDeadline.current();
+            C consumer = sink.get();
+            // Checked per row too, as the DAO may stream without a statement to cancel.
+            agentDAO.streamAll(agent -> {
+                if (deadline.isExpired()) {
+                    throw new DeadlineExceededException();
+                }
+                consumer.accept(agent);
+            });
+            return consumer;
+        });
     }
 
     public CompletableFuture<Optional<Agent>> getAgentByIdAsync(long id) {
-        return CompletableFuture.supplyAsync(() -> agentDAO.findById(id), executorService);
+        return coalesce(new ReadKey("id", id), () -> agentDAO.findById(id), true);
     }
 
     public CompletableFuture<Agent> createAgentAsync(AgentRequest request) {
-        return CompletableFuture.supplyAsync(() -> {
+        if (insertBatcher != null) {
+            if (limiter != null && !limiter.tryAcquire()) {
+                return CompletableFuture.failedFuture(new ServiceOverloadedException(limiter.getLimit()));
+            }
+            long admitted = System.nanoTime();
+            CompletableFuture<Agent> created = insertBatcher.submit(agentFactory.createAgent(request))
+                    .handleAsync((agent, error) -> {
+                        if (limiter != null) {
+                            limiter.release(System.nanoTime() - admitted);
+                        }
+                        if (error != null) {
+                            throw new CompletionException(error);
+                        }
+                        eventPublisher.publishAgentCreated(agent);
+                        writeEpoch.incrementAndGet();
+                        return agent;
+                    }, executorService);
+            QueryDeadline deadline = QueryDeadline.current();
+            // The batch is shared with other callers, so only the wait is bounded.
+            return deadline != null ? deadline.bound(created) : created;
+        }
+        return write(() -> {
             Agent agent = agentFactory.createAgent(request);
             Agent saved = agentDAO.save(agent);
             eventPublisher.publishAgentCreated(saved);
             return saved;
-        }, executorService);
+        });
     }
 
-    public CompletableFuture<Optional<Agent>> updateAgentAsync(long id, AgentRequest request) {
-        return CompletableFuture.supplyAsync(() -> agentDAO.findById(id).map(existing -> {
-            existing.setCode(request.getCode());
-            existing.setName(request.getName());
-            existing.setRegion(request.getRegion());
-            existing.setStatus(request.getStatus());
-            Agent updated = agentDAO.update(id, existing);
-            eventPublisher.publishAgentUpdated(updated);
-            return updated;
-        }), executorService);
-    }
-
-    public CompletableFuture<Boolean> deleteAgentAsync(long id) {
-        return CompletableFuture.supplyAsync(() -> {
-            Optional<Agent> agent = agentDAO.findById(id);
-            agent.ifPresent(a -> {
-                agentDAO.delete(id);
-                eventPublisher.publishAgentDeleted(id);
-            });
-            return agent.isPresent();
+    /**
+     * Overwrites the agent in one DAO call. A non-null {@code expectedVersion}
+     * makes the write conditional; a mismatch fails the future with
+     * {@link com.managementagent.server.dao.StaleAgentException}.
+     */
+    public CompletableFuture<Optional<Agent>> updateAgentAsync(long id, AgentRequest request, Long expectedVersion) {
+        return write(() -> {
+            Optional<AgentUpdate> updated = agentDAO.update(id, agentFactory.createAgent(request), expectedVersion);
+            updated.ifPresent(update -> eventPublisher.publishAgentUpdated(update.getPrevious(), update.getAgent()));
+            return updated.map(AgentUpdate::getAgent);
+        });
+    }
+
+    public CompletableFuture<Boolean> deleteAgentAsync(long id, Long expectedVersion) {
+        return write(() -> {
+            Optional<Agent> deleted = agentDAO.delete(id, expectedVersion);
+            deleted.ifPresent(eventPublisher::publishAgentDeleted);
+            return deleted.isPresent();
+        });
+    }
+
+    /**
+     * Runs an import as a bulk transfer, paced by the client's upload; fails
+     * with {@link ServiceOverloadedException} when all bulk slots are taken.
+     */
+    public CompletableFuture<AgentImportResult> importAgentsAsync(AgentImporter importer,
+                                                                  AgentImporter.Source source) {
+        return bulk(() -> {
+            try {
+                return importer.importAll(source);
+            } finally {
+                writeEpoch.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Tasks submitted to the executor that have not started running yet.
+     */
+    public long getQueuedTaskCount() {
+        return submittedTasks.sum() - startedTasks.sum();
+    }
+
+    /**
+     * Tasks currently running, including those waiting for a query permit.
+     */
+    public long getActiveTaskCount() {
+        return startedTasks.sum() - completedTasks.sum();
+    }
+
+    public int getActiveBulkTransferCount() {
+        return maxBulkTransfers - bulkSlots.availablePermits();
+    }
+
+    /**
+     * Streams and imports refused because every bulk slot was taken.
+     */
+    public long getRejectedBulkTransferCount() {
+        return rejectedBulkTransfers.sum();
+    }
+
+    public int getPermitWaitCount() {
+        return queryPermits != null ? queryPermits.getQueueLength() : 0;
+    }
+
+    /**
+     * Reads answered by joining an identical read already in flight instead of querying the DAO.
+     */
+    public long getCoalescedReadCount() {
+        return coalescedReads.sum();
+    }
+
+    /**
+     * Single-flight: concurrent callers asking for the same key share one DAO
+     * call. A caller only joins a read started in its own write epoch or later, so a
+     * read that may predate a completed write is never handed to someone who
+     * issued their request after that write returned.
+     *
+     * <p>The shared call belongs to no single caller's deadline. Every caller,
+     * the one that started it included, only bounds its own wait, and the
+     * call is cancelled once the last caller still waiting has timed out, so
+     * it effectively runs under the latest deadline among its callers.</p>
+     *
+     * @param sampled whether the read's latency should steer the limit, as in {@link #supply}
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> coalesce(ReadKey key, Supplier<T> read, boolean sampled) {
+        QueryDeadline deadline = QueryDeadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            return CompletableFuture.failedFuture(new DeadlineExceededException());
+        }
+        long epoch = writeEpoch.get();
+        InFlightRead<T> candidate = new InFlightRead<>(epoch);
+        InFlightRead<?> leader = inFlightReads.compute(key, (ignored, current) ->
+                current != null && current.epoch >= epoch && current.join() ? current : candidate);
+        if (leader != candidate) {
+            coalescedReads.increment();
+            return await(key, (InFlightRead<T>) leader, deadline);
+        }
+        candidate.deadline.call(() -> supply(read, sampled)).whenComplete((value, error) -> {
+            inFlightReads.remove(key, candidate);
+            if (error != null) {
+                candidate.result.completeExceptionally(error);
+            } else {
+                candidate.result.complete(value);
+            }
+        });
+        return await(key, candidate, deadline);
+    }
+
+    private <T> CompletableFuture<T> await(ReadKey key, InFlightRead<T> read, QueryDeadline deadline) {
+        if (deadline == null) {
+            // A copy, so one caller cancelling its future does not fail the others.
+            return read.result.copy();
+        }
+        return deadline.bound(read.result).whenComplete((value, error) -> {
+            if (error instanceof TimeoutException && read.leave()) {
+                // Nobody is waiting any more: stop the query rather than let later callers join it.
+                inFlightReads.remove(key, read);
+                read.deadline.cancel();
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> write(Supplier<T> task) {
+        return supply(() -> {
+            try {
+                return task.get();
+            } finally {
+                // Bumped after the write so reads started before it stop accepting joiners.
+                writeEpoch.incrementAndGet();
+            }
+        }, true);
+    }
+
+    /**
+     * Runs the task on the executor once admitted by the limiter, if any.
+     * Rejected tasks fail straight away with {@link ServiceOverloadedException}.
+     * The caller's deadline, if any, is installed for the DAO and enforced on
+     * the returned future; so is the caller's read routing.
+     *
+     * @param sampled whether the task's latency should steer the limit
+     */
+    private <T> CompletableFuture<T> supply(Supplier<T> task, boolean sampled) {
+        QueryDeadline deadline = QueryDeadline.current();
+        ReadRouting routing = ReadRouting.current();
+        if (deadline != null && deadline.isExpired()) {
+            return CompletableFuture.failedFuture(new DeadlineExceededException());
+        }
+        if (limiter != null && !limiter.tryAcquire()) {
+            return CompletableFuture.failedFuture(new ServiceOverloadedException(limiter.getLimit()));
+        }
+        long admitted = System.nanoTime();
+        submittedTasks.increment();
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> {
+            startedTasks.increment();
+            try {
+                Supplier<T> permitted = () -> withPermit(task);
+                Supplier<T> routed = routing != null ? () -> routing.call(permitted) : permitted;
+                return deadline != null ? deadline.call(routed) : routed.get();
+            } finally {
+                completedTasks.increment();
+                // Released before the future completes, so a follow-up call chained by the caller finds the slot free.
+                if (limiter != null) {
+                    if (sampled) {
+                        limiter.release(System.nanoTime() - admitted);
+                    } else {
+                        limiter.release();
+                    }
+                }
+            }
         }, executorService);
+        return deadline != null ? deadline.enforce(future) : future;
+    }
+
+    /**
+     * Runs a client-paced task on the bulk executor under its own timeout and
+     * the caller's read routing. It bypasses the limiter and the query
+     * permits: its duration says nothing about server load, and the bulk
+     * slots already bound its threads and connections.
+     */
+    private <T> CompletableFuture<T> bulk(Supplier<T> task) {
+        if (!bulkSlots.tryAcquire()) {
+            rejectedBulkTransfers.increment();
+            return CompletableFuture.failedFuture(new ServiceOverloadedException(maxBulkTransfers));
+        }
+        ReadRouting routing = ReadRouting.current();
+        QueryDeadline deadline = QueryDeadline.after(bulkTimeoutMillis);
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return deadline.call(routing != null ? () -> routing.call(task) : task);
+                } finally {
+                    bulkSlots.release();
+                }
+            }, bulkExecutor);
+        } catch (RuntimeException e) {
+            bulkSlots.release();
+            throw e;
+        }
+        return deadline.enforce(future);
+    }
+
+    private <T> T withPermit(Supplier<T> task) {
+        if (queryPermits == null) {
+            return task.get();
+        }
+        // With virtual threads the executor is unbounded; waiting here is what keeps
+        // the number of in-flight queries within the connection pool.
+        queryPermits.acquireUninterruptibly();
+        try {
+            return task.get();
+        } finally {
+            queryPermits.release();
+        }
     }
 
     public void shutdown() {
+        if (insertBatcher != null) {
+            // Flushes pending inserts while the executor can still complete their callers.
+            insertBatcher.shutdown();
+        }
         executorService.shutdown();
+        bulkExecutor.shutdown();
+    }
+
+    private static final class ReadKey {
+        private final String operation;
+        private final Object argument;
+        private final ReadRouting routing;
+
+        private ReadKey(String operation, Object argument) {
+            this.operation = operation;
+            this.argument = argument;
+            // Reads bound for different databases may see different data, so they are never shared.
+            this.routing = ReadRouting.current();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReadKey)) return false;
+            ReadKey other = (ReadKey) o;
+            return operation.equals(other.operation) && Objects.equals(argument, other.argument)
+                    && Objects.equals(routing, other.routing);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(operation, argument, routing);
+        }
+    }
+
+    private static final class InFlightRead<T> {
+        private final long epoch;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final QueryDeadline deadline = QueryDeadline.untilCancelled();
+        // Callers that may still give up on the read; it is abandoned at zero.
+        private final AtomicInteger waiting = new AtomicInteger(1);
+
+        private InFlightRead(long epoch) {
+            this.epoch = epoch;
+        }
+
+        /**
+         * @return whether the caller joined, which fails once the read is abandoned
+         */
+        private boolean join() {
+            int current;
+            do {
+                current = waiting.get();
+                if (current == 0) {
+                    return false;
+                }
+            } while (!waiting.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * @return whether the caller was the last one waiting
+         */
+        private boolean leave() {
+            return waiting.decrementAndGet() == 0;
+        }
     }
 }
@@ -0,0 +1,231 @@
+package com.managementagent.server.service;
+
+import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.dao.ReadRouting;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentStats;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.observer.AgentEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Agent counts by region and status kept in memory, so {@code /agents/stats}
+ * never touches the database. Every event adjusts one or two counters; an
+ * update moves the agent from its previous region and status to the new ones.
+ *
+ * <p>The counters are seeded with a single grouped query by {@link #start()}
+ * and reconciled against the database at a fixed interval. Reconciling picks
+ * up writes made by other server instances and events lost by a dropping or
+ * coalescing event queue. A count is only used if the collection version was
+ * the same before and after it, and then covers every write up to that
+ * version: events still in flight for those writes arrive later and are
+ * ignored, rather than counted twice.</p>
+ */
+public class AgentStatsCounters implements AgentEventListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AgentStatsCounters.class);
+    private static final AgentStatus[] STATUSES = AgentStatus.values();
+    private static final int RECONCILE_ATTEMPTS = 3;
+
+    private final AgentDAO agentDAO;
+    private final long reconcileMillis;
+    private final ConcurrentMap<String, AtomicLongArray> counts = new ConcurrentHashMap<>();
+    // Events apply under the read lock, a count under the write lock.
+    private final ReadWriteLock countLock = new ReentrantReadWriteLock();
+    private final LongAdder corrections = new LongAdder();
+    // Version of the writes covered by the last count applied.
+    private volatile long countedVersion;
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * @param reconcileMillis interval between reconciliations; {@code 0} only seeds the counters
+     */
+    public AgentStatsCounters(AgentDAO agentDAO, long reconcileMillis) {
+        this.agentDAO = agentDAO;
+        this.reconcileMillis = reconcileMillis;
+    }
+
+    /**
+     * Seeds the counters from the database and schedules the reconciliation.
+     * Call once the store is loaded and before serving requests.
+     */
+    public void start() {
+        seed();
+        if (reconcileMillis > 0) {
+            reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "agent-stats-reconciler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            reconciler.scheduleWithFixedDelay(this::reconcile, reconcileMillis, reconcileMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public AgentStats getStats() {
+        Map<String, Map<AgentStatus, Long>> snapshot = new HashMap<>();
+        counts.forEach((region, cells) -> {
+            Map<AgentStatus, Long> byStatus = new EnumMap<>(AgentStatus.class);
+            for (AgentStatus status : STATUSES) {
+                byStatus.put(status, cells.get(status.ordinal()));
+            }
+            snapshot.put(region, byStatus);
+        });
+        return new AgentStats(snapshot);
+    }
+
+    /**
+     * Reconciliations that found the counters off and corrected them.
+     */
+    public long getCorrectionCount() {
+        return corrections.sum();
+    }
+
+    @Override
+    public void onAgentCreated(Agent agent) {
+        applyEvent(() -> add(agent, 1), agent);
+    }
+
+    @Override
+    public void onAgentUpdated(Agent previous, Agent agent) {
+        if (!Objects.equals(previous.getRegion(), agent.getRegion()) || previous.getStatus() != agent.getStatus()) {
+            applyEvent(() -> {
+                add(previous, -1);
+                add(agent, 1);
+            }, agent);
+        }
+    }
+
+    @Override
+    public void onAgentDeleted(Agent agent) {
+        // The deleted agent carries the version of the deletion.
+        applyEvent(() -> add(agent, -1), agent);
+    }
+
+    @Override
+    public void onAgentsImported(List<Agent> agents) {
+        agents.forEach(agent -> applyEvent(() -> add(agent, 1), agent));
+    }
+
+    /**
+     * Applies the change unless the last count already included the write.
+     */
+    private void applyEvent(Runnable change, Agent agent) {
+        countLock.readLock().lock();
+        try {
+            if (agent.getVersion() > countedVersion) {
+                change.run();
+            }
+        } finally {
+            countLock.readLock().unlock();
+        }
+    }
+
+    private void add(Agent agent, int delta) {
+        // Agents without region or status can only exist without a database and are not counted.
+        if (agent.getRegion() != null && agent.getStatus() != null) {
+            counts.computeIfAbsent(agent.getRegion(), region -> new AtomicLongArray(STATUSES.length))
+                    .addAndGet(agent.getStatus().ordinal(), delta);
+        }
+    }
+
+    private void seed() {
+        for (int attempt = 0; attempt < RECONCILE_ATTEMPTS; attempt++) {
+            if (countAtVersion() != null) {
+                return;
+            }
+        }
+        // Writes kept overlapping; the first reconciliation corrects whatever this count got wrong.
+        apply(agentDAO.countByRegionAndStatus(), 0);
+    }
+
+    private void reconcile() {
+        try {
+            for (int attempt = 0; attempt < RECONCILE_ATTEMPTS; attempt++) {
+                Boolean changed = countAtVersion();
+                if (changed != null) {
+                    if (changed) {
+                        corrections.increment();
+                        LOGGER.info("Agent stats drifted from the database and were corrected");
+                    }
+                    return;
+                }
+            }
+            LOGGER.debug("Agent stats not reconciled, writes kept overlapping the count");
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to reconcile agent stats", e);
+        }
+    }
+
+    /**
+     * Counts the agents between two reads of the collection version, both on
+     * the primary, and applies the count if no write committed in between.
+     *
+     * @return whether the counters changed, or {@code null} if the count overlapped a write
+     */
+    private Boolean countAtVersion() {
+        return ReadRouting.PRIMARY.call(() -> {
+            long before = agentDAO.currentVersion();
+            AgentStats stats = agentDAO.countByRegionAndStatus();
+            if (agentDAO.currentVersion() != before) {
+                return null;
+            }
+            return apply(stats, before);
+        });
+    }
+
+    /**
+     * Overwrites the counters with a count covering the writes up to the given
+     * version and returns whether any changed.
+     */
+    private boolean apply(AgentStats stats, long version) {
+        countLock.writeLock().lock();
+        try {
+            countedVersion = Math.max(countedVersion, version);
+            return overwrite(stats);
+        } finally {
+            countLock.writeLock().unlock();
+        }
+    }
+
+    private boolean overwrite(AgentStats stats) {
+        boolean changed = false;
+        Set<String> regions = new HashSet<>(counts.keySet());
+        regions.addAll(stats.getRegions().keySet());
+        for (String region : regions) {
+            AtomicLongArray cells = counts.computeIfAbsent(region, key -> new AtomicLongArray(STATUSES.length));
+            Map<AgentStatus, Long> expected = stats.getRegions().getOrDefault(region, Map.of());
+            for (AgentStatus status : STATUSES) {
+                long value = expected.getOrDefault(status, 0L);
+                if (cells.getAndSet(status.ordinal(), value) != value) {
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    public void shutdown() {
+        if (reconciler != null) {
+            reconciler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.managementagent.server.service;
+
+import com.managementagent.server.dao.AgentDAO;
+import com.managementagent.server.model.Agent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit for agent inserts: creates arriving within {@code maxDelay} of
+ * each other, up to {@code maxBatchSize}, are written with one
+ * {@link AgentDAO#saveAll(List)} call, i.e. one transaction and one round trip
+ * instead of one per agent.
+ *
+ * <p>A single flusher thread drains the queue, so a batch starts as soon as
+ * the previous one is committed and an idle server adds no delay beyond the
+ * window. If a batch fails it is retried one agent at a time, so a bad row
+ * (a duplicate code, say) fails only its own caller.</p>
+ */
+public class InsertBatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InsertBatcher.class);
+
+    private final AgentDAO agentDAO;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<PendingInsert> queue = new LinkedBlockingQueue<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedInserts = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public InsertBatcher(AgentDAO agentDAO, int maxBatchSize, long maxDelayMillis) {
+        this.agentDAO = agentDAO;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.flusher = new Thread(this::run, "agent-insert-batcher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queues the agent for the next batch; the future completes with the
+     * agent, id and version filled in, once its batch is committed.
+     */
+    public CompletableFuture<Agent> submit(Agent agent) {
+        PendingInsert pending = new PendingInsert(agent);
+        if (!running) {
+            pending.result.completeExceptionally(new IllegalStateException("Insert batcher is shut down"));
+            return pending.result;
+        }
+        queue.add(pending);
+        return pending.result;
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    public long getBatchedInsertCount() {
+        return batchedInserts.sum();
+    }
+
+    /**
+     * Batches that failed as a whole and were retried row by row.
+     */
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<PendingInsert> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingInsert first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingInsert next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingInsert> batch) {
+        List<Agent> agents = new ArrayList<>(batch.size());
+        batch.forEach(pending -> agents.add(pending.agent));
+        try {
+            agentDAO.saveAll(agents);
+            batches.increment();
+            batchedInserts.add(batch.size());
+            batch.forEach(pending -> pending.result.complete(pending.agent));
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            fallbacks.increment();
+            LOGGER.warn("Batch of {} inserts failed, retrying one by one", batch.size(), e);
+        }
+        for (PendingInsert pending : batch) {
+            try {
+                pending.result.complete(agentDAO.save(pending.agent));
+            } catch (RuntimeException e) {
+                pending.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final class PendingInsert {
+        private final Agent agent;
+        private final CompletableFuture<Agent> result = new CompletableFuture<>();
+
+        private PendingInsert(Agent agent) {
+            this.agent = agent;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.managementagent.server.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executor behind {@link AgentService}: either a fixed pool of
+ * platform threads or, on Java 21+, one virtual thread per task. The virtual
+ * mode is resolved reflectively so the server still compiles for Java 17.
+ */
+public final class ServiceExecutors {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceExecutors.class);
+
+    private ServiceExecutors() {
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return findVirtualFactory() != null;
+    }
+
+    public static ExecutorService fixed(int threads) {
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor, falling back to a fixed pool
+     * of {@code fallbackThreads} when the JVM has no virtual threads.
+     */
+    public static ExecutorService virtual(int fallbackThreads) {
+        Method factory = findVirtualFactory();
+        if (factory != null) {
+            try {
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warn("Unable to create virtual thread executor", e);
+            }
+        }
+        LOGGER.warn("Virtual threads require Java 21+, falling back to {} platform threads", fallbackThreads);
+        return fixed(fallbackThreads);
+    }
+
+    private static Method findVirtualFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.managementagent.server.service;
+
+/**
+ * Thrown when a service call is rejected because the adaptive concurrency
+ * limit is reached; callers should retry later.
+ */
+public class ServiceOverloadedException extends RuntimeException {
+
+    public ServiceOverloadedException(int limit) {
+        super("Server overloaded: " + limit + " requests already in progress");
+    }
+}
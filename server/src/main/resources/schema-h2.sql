@@ -0,0 +1,35 @@
+-- Embedded H2 equivalent of schema.sql for load tests without SQL Server.
+-- H2 has no ROWVERSION: a shared sequence gives every write the same kind of
+-- database-wide, ever-increasing version.
+CREATE SEQUENCE IF NOT EXISTS agent_row_versions;
+
+CREATE TABLE IF NOT EXISTS agents (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    code VARCHAR(50) NOT NULL,
+    name VARCHAR(150) NOT NULL,
+    region VARCHAR(100) NOT NULL,
+    status VARCHAR(50) NOT NULL CONSTRAINT ck_agents_status CHECK (status IN ('ATTIVO', 'INATTIVO', 'SOSPESO')),
+    last_update TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    row_version BIGINT NOT NULL DEFAULT NEXT VALUE FOR agent_row_versions
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS ux_agents_code ON agents (code);
+
+CREATE INDEX IF NOT EXISTS ix_agents_region_status ON agents (region, status);
+
+CREATE INDEX IF NOT EXISTS ix_agents_row_version ON agents (row_version);
+
+CREATE TABLE IF NOT EXISTS agent_tombstones (
+    agent_id BIGINT NOT NULL,
+    deleted_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    row_version BIGINT NOT NULL DEFAULT NEXT VALUE FOR agent_row_versions
+);
+
+CREATE INDEX IF NOT EXISTS ix_agent_tombstones_row_version ON agent_tombstones (row_version);
+
+CREATE TABLE IF NOT EXISTS agent_tombstone_floor (
+    row_version BIGINT NOT NULL
+);
+
+INSERT INTO agent_tombstone_floor (row_version)
+SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM agent_tombstone_floor);
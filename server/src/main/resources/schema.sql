@@ -4,5 +4,58 @@ CREATE TABLE IF NOT EXISTS agents (
     name VARCHAR(150) NOT NULL,
     region VARCHAR(100) NOT NULL,
     status VARCHAR(50) NOT NULL,
-    last_update DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME()
+    last_update DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    row_version ROWVERSION
 );
+
+-- Tables created before the change feed: add the version column every query selects.
+IF COL_LENGTH('agents', 'row_version') IS NULL
+    ALTER TABLE agents ADD row_version ROWVERSION;
+GO
+
+-- Duplicate codes stop the unique index: list them with
+--   SELECT code, COUNT(*) FROM agents GROUP BY code HAVING COUNT(*) > 1
+-- and keep the row most recently updated under each code, renaming the others (e.g. code + '-' + id),
+-- before running the script again.
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ux_agents_code' AND object_id = OBJECT_ID('agents'))
+BEGIN
+    IF EXISTS (SELECT 1 FROM agents GROUP BY code HAVING COUNT(*) > 1)
+        THROW 50001, 'agents has duplicate codes: resolve them before ux_agents_code is created', 1;
+    CREATE UNIQUE INDEX ux_agents_code ON agents (code);
+END
+
+-- WITH NOCHECK so databases created before the constraint keep their rows; unknown statuses read as SCONOSCIUTO
+-- and updates that carry SCONOSCIUTO leave the column untouched, so this constraint is not re-checked for them.
+IF OBJECT_ID('ck_agents_status', 'C') IS NULL
+    ALTER TABLE agents WITH NOCHECK
+        ADD CONSTRAINT ck_agents_status CHECK (status IN ('ATTIVO', 'INATTIVO', 'SOSPESO'));
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ix_agents_region_status' AND object_id = OBJECT_ID('agents'))
+    CREATE INDEX ix_agents_region_status ON agents (region, status) INCLUDE (code, name, last_update);
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'ix_agents_row_version' AND object_id = OBJECT_ID('agents'))
+    CREATE INDEX ix_agents_row_version ON agents (row_version);
+
+-- Deleted agent ids, kept so the change feed can report deletions, for changes.tombstoneRetentionHours.
+CREATE TABLE IF NOT EXISTS agent_tombstones (
+    agent_id BIGINT NOT NULL,
+    deleted_at DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME(),
+    row_version ROWVERSION
+);
+
+-- Tombstone tables created before the retention purge have no deletion time; existing rows get the current one.
+IF COL_LENGTH('agent_tombstones', 'deleted_at') IS NULL
+    ALTER TABLE agent_tombstones ADD deleted_at DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME();
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes
+               WHERE name = 'ix_agent_tombstones_row_version' AND object_id = OBJECT_ID('agent_tombstones'))
+    CREATE INDEX ix_agent_tombstones_row_version ON agent_tombstones (row_version);
+
+-- Newest tombstone version purged: change-feed tokens below it are refused and the client reloads.
+CREATE TABLE IF NOT EXISTS agent_tombstone_floor (
+    row_version BIGINT NOT NULL
+);
+
+INSERT INTO agent_tombstone_floor (row_version)
+SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM agent_tombstone_floor);
@@ -0,0 +1,74 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingAgentDAOTest {
+
+    @Test
+    void loadRacingWithUpdateIsNotCached() throws Exception {
+        SlowLookupDAO delegate = new SlowLookupDAO();
+        CachingAgentDAO cache = new CachingAgentDAO(delegate, 100, Duration.ofHours(1), Duration.ofHours(1));
+        long id = delegate.save(agent("before")).getId();
+
+        CompletableFuture<Optional<Agent>> load = CompletableFuture.supplyAsync(() -> cache.findById(id));
+        assertTrue(delegate.loaded.await(5, TimeUnit.SECONDS));
+        cache.update(id, agent("after"), null);
+        delegate.release.countDown();
+
+        assertEquals("before", load.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        assertEquals("after", cache.findById(id).orElseThrow().getName());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    void replicaLoadsExpireAfterReplicaTtl() {
+        InMemoryAgentDAO delegate = new InMemoryAgentDAO();
+        CachingAgentDAO cache = new CachingAgentDAO(delegate, 100, Duration.ofHours(1), Duration.ZERO);
+        long id = delegate.save(agent("row")).getId();
+        ReadRouting replica = new ReadRouting(0);
+
+        replica.call(() -> cache.findById(id));
+        replica.call(() -> cache.findById(id));
+        ReadRouting.PRIMARY.call(() -> cache.findById(id));
+        ReadRouting.PRIMARY.call(() -> cache.findById(id));
+
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    private static Agent agent(String name) {
+        return new Agent(0, "AG-1", name, "EU", AgentStatus.ATTIVO, LocalDateTime.now());
+    }
+
+    /**
+     * Holds every lookup, after it has read the row, until released.
+     */
+    private static final class SlowLookupDAO extends InMemoryAgentDAO {
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Optional<Agent> findById(long id) {
+            Optional<Agent> agent = super.findById(id);
+            loaded.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return agent;
+        }
+    }
+}
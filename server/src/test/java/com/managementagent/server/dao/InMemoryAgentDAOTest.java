@@ -0,0 +1,57 @@
+package com.managementagent.server.dao;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentChanges;
+import com.managementagent.server.model.AgentStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryAgentDAOTest {
+
+    @Test
+    void changeFeedReportsDeletion() {
+        InMemoryAgentDAO dao = new InMemoryAgentDAO();
+        long deletedId = dao.save(agent("AG-1")).getId();
+        long keptId = dao.save(agent("AG-2")).getId();
+        long token = dao.currentVersion();
+
+        dao.delete(deletedId, null);
+
+        AgentChanges changes = dao.findChangesSince(token);
+        assertTrue(changes.getUpserts().isEmpty());
+        assertEquals(List.of(deletedId), changes.getDeletes());
+        assertEquals(dao.currentVersion(), changes.getNextToken());
+
+        AgentChanges all = dao.findChangesSince(0);
+        assertEquals(List.of(keptId), all.getUpserts().stream().map(Agent::getId).toList());
+        assertEquals(List.of(deletedId), all.getDeletes());
+    }
+
+    @Test
+    void frontChangeFeedReportsDeletionOnEitherSideOfTheLoad() {
+        InMemoryAgentDAO backing = new InMemoryAgentDAO();
+        long deletedBeforeLoad = backing.save(agent("AG-1")).getId();
+        long tokenBeforeLoad = backing.currentVersion();
+        backing.delete(deletedBeforeLoad, null);
+        long deletedAfterLoad = backing.save(agent("AG-2")).getId();
+        InMemoryAgentDAO front = new InMemoryAgentDAO(backing);
+        long tokenAfterLoad = front.currentVersion();
+
+        front.delete(deletedAfterLoad, null);
+
+        assertEquals(backing.currentVersion(), front.currentVersion());
+        assertEquals(List.of(deletedAfterLoad), front.findChangesSince(tokenAfterLoad).getDeletes());
+        AgentChanges sinceBeforeLoad = front.findChangesSince(tokenBeforeLoad);
+        assertTrue(sinceBeforeLoad.getUpserts().isEmpty());
+        assertEquals(List.of(deletedBeforeLoad, deletedAfterLoad), sinceBeforeLoad.getDeletes());
+    }
+
+    private static Agent agent(String code) {
+        return new Agent(0, code, "Agent " + code, "EU", AgentStatus.ATTIVO, LocalDateTime.now());
+    }
+}
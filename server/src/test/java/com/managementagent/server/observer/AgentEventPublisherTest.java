@@ -0,0 +1,95 @@
+package com.managementagent.server.observer;
+
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AgentEventPublisherTest {
+
+    @Test
+    void coalescedEventsAreMergedPerAgent() throws Exception {
+        AgentEventPublisher publisher = new AgentEventPublisher(1, AgentEventPublisher.OverflowPolicy.COALESCE);
+        RecordingListener listener = new RecordingListener();
+        publisher.register(listener);
+
+        publisher.publishAgentCreated(agent(1, "gate"));
+        assertTrue(listener.started.await(5, TimeUnit.SECONDS));
+        // Fills the queue, so everything after it is coalesced.
+        publisher.publishAgentCreated(agent(2, "filler"));
+        publisher.publishAgentCreated(agent(3, "c1"));
+        publisher.publishAgentUpdated(agent(3, "c1"), agent(3, "c2"));
+        publisher.publishAgentDeleted(agent(3, "c2"));
+        publisher.publishAgentUpdated(agent(4, "u1"), agent(4, "u2"));
+        publisher.publishAgentUpdated(agent(4, "u2"), agent(4, "u3"));
+        publisher.publishAgentCreated(agent(5, "n1"));
+        publisher.publishAgentUpdated(agent(5, "n1"), agent(5, "n2"));
+        listener.release.countDown();
+        publisher.shutdown();
+
+        assertEquals(List.of("created gate", "created filler", "updated u1>u3", "created n2"), listener.events);
+        assertEquals(5, publisher.getListenerStats(listener).getCoalesced());
+    }
+
+    @Test
+    void deletionAfterUpdatesDeletesTheStateListenersLastSaw() {
+        AgentEvent merged = AgentEvent.merge(AgentEvent.updated(agent(1, "v1"), agent(1, "v2")),
+                AgentEvent.deleted(agent(1, "v2")));
+
+        assertEquals(AgentEvent.Type.DELETED, merged.getType());
+        assertEquals("v1", merged.getPrevious().getName());
+        assertNull(merged.getAgent());
+    }
+
+    private static Agent agent(long id, String name) {
+        return new Agent(id, "AG-" + id, name, "EU", AgentStatus.ATTIVO, LocalDateTime.now());
+    }
+
+    /**
+     * Records what it receives, holding the first delivery until released.
+     */
+    private static final class RecordingListener implements AgentEventListener {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void onAgentCreated(Agent agent) {
+            record("created " + agent.getName());
+        }
+
+        @Override
+        public void onAgentUpdated(Agent previous, Agent agent) {
+            record("updated " + previous.getName() + ">" + agent.getName());
+        }
+
+        @Override
+        public void onAgentDeleted(Agent agent) {
+            record("deleted " + agent.getName());
+        }
+
+        @Override
+        public void onAgentsImported(List<Agent> agents) {
+            record("imported " + agents.size());
+        }
+
+        private void record(String event) {
+            events.add(event);
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.managementagent.server.service;
+
+import com.managementagent.server.dao.InMemoryAgentDAO;
+import com.managementagent.server.factory.AgentFactory;
+import com.managementagent.server.model.Agent;
+import com.managementagent.server.model.AgentRequest;
+import com.managementagent.server.model.AgentStatus;
+import com.managementagent.server.observer.AgentEventPublisher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AgentServiceTest {
+
+    private final BlockingFirstLookupDAO dao = new BlockingFirstLookupDAO();
+    private AgentService service;
+    private long id;
+
+    @BeforeEach
+    void setUp() {
+        service = new AgentService(dao, new AgentFactory(), new AgentEventPublisher());
+        id = dao.save(agent("before")).getId();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dao.release.countDown();
+        service.shutdown();
+    }
+
+    @Test
+    void concurrentLookupsShareOneQuery() throws Exception {
+        CompletableFuture<Optional<Agent>> first = service.getAgentByIdAsync(id);
+        assertTrue(dao.blocked.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Optional<Agent>> second = service.getAgentByIdAsync(id);
+        dao.release.countDown();
+
+        assertEquals("before", first.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        assertEquals("before", second.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        assertEquals(1, dao.lookups.get());
+        assertEquals(1, service.getCoalescedReadCount());
+    }
+
+    @Test
+    void lookupAfterCompletedWriteDoesNotJoinOlderRead() throws Exception {
+        CompletableFuture<Optional<Agent>> stale = service.getAgentByIdAsync(id);
+        assertTrue(dao.blocked.await(5, TimeUnit.SECONDS));
+        service.updateAgentAsync(id, request("after"), null).get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Optional<Agent>> fresh = service.getAgentByIdAsync(id);
+
+        assertEquals("after", fresh.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        dao.release.countDown();
+        assertEquals("before", stale.get(5, TimeUnit.SECONDS).orElseThrow().getName());
+        assertEquals(2, dao.lookups.get());
+        assertEquals(0, service.getCoalescedReadCount());
+    }
+
+    private static Agent agent(String name) {
+        return new AgentFactory().createAgent(request(name));
+    }
+
+    private static AgentRequest request(String name) {
+        AgentRequest request = new AgentRequest();
+        request.setCode("AG-1");
+        request.setName(name);
+        request.setRegion("EU");
+        request.setStatus(AgentStatus.ATTIVO);
+        return request;
+    }
+
+    /**
+     * Holds the first lookup, after it has read the row, until released.
+     */
+    private static final class BlockingFirstLookupDAO extends InMemoryAgentDAO {
+        private final AtomicInteger lookups = new AtomicInteger();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Optional<Agent> findById(long id) {
+            Optional<Agent> agent = super.findById(id);
+            if (lookups.incrementAndGet() == 1) {
+                blocked.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return agent;
+        }
+    }
+}